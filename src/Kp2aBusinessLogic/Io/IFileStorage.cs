@@ -212,6 +212,35 @@ namespace keepass2android.Io
     void CommitWrite();
   }
 
+  /// <summary>
+  /// Can be implemented by IFileStorage implementers which can make reads and writes conditional on
+  /// the version returned by GetCurrentFileVersionFast.
+  /// </summary>
+  public interface IVersionCheckingFileStorage
+  {
+    /// <summary>
+    /// Like OpenFileForRead, but returns null without downloading the file if it still has knownVersion.
+    /// </summary>
+    Stream OpenFileForReadIfChanged(IOConnectionInfo ioc, string knownVersion);
+
+    /// <summary>
+    /// Like OpenWriteTransaction, but CommitWrite throws FileVersionConflictException instead of
+    /// replacing the file if it no longer has expectedVersion.
+    /// </summary>
+    IWriteTransaction OpenWriteTransaction(IOConnectionInfo ioc, bool useFileTransaction, string expectedVersion);
+  }
+
+  /// <summary>
+  /// Thrown by conditional writes if the file was modified by someone else.
+  /// </summary>
+  public class FileVersionConflictException : Exception
+  {
+    public FileVersionConflictException(string message, Exception innerException)
+        : base(message, innerException)
+    {
+    }
+  }
+
   public class FileStorageSelectionInfo
   {
     public enum FileStorageSelectionMessageType
@@ -21,6 +21,7 @@ using Android.App;
 using Android.Content;
 using Android.Content.PM;
 using Android.OS;
+using Android.Preferences;
 using KeePassLib.Serialization;
 using KeePassLib.Utility;
 #if !EXCLUDE_JAVAFILESTORAGE
@@ -111,7 +112,7 @@ namespace keepass2android.Io
     }
 
 
-    private Exception LogAndConvertJavaException(Exception e)
+    protected Exception LogAndConvertJavaException(Exception e)
     {
       Kp2aLog.Log(e.Message);
 
@@ -124,6 +125,11 @@ namespace keepass2android.Io
       {
         throw new UserInteractionRequiredException();
       }
+      if ((e is Keepass2android.Javafilestorage.FileVersionConflictException)
+          || e.ToString().Contains("keepass2android.javafilestorage.FileVersionConflictException"))
+      {
+        return new FileVersionConflictException(e.Message, e);
+      }
 
       Java.Lang.Exception exception = e as Java.Lang.Exception;
 
@@ -145,12 +151,61 @@ namespace keepass2android.Io
 
     public virtual IWriteTransaction OpenWriteTransaction(IOConnectionInfo ioc, bool useFileTransaction)
     {
-      return new JavaFileStorageWriteTransaction(IocToPath(ioc), useFileTransaction, this);
+      //with file transactions, an aborted upload never replaces the target file. This allows to
+      //stream the data to the storage while it is written instead of buffering the whole file.
+      if (useFileTransaction)
+        return new JavaFileStorageStreamingWriteTransaction(IocToPath(ioc), this);
+      return new JavaFileStorageWriteTransaction(IocToPath(ioc), useFileTransaction, null, this);
+    }
+
+    /// <summary>
+    /// Opens a write transaction which uploads with UploadFileIfUnchanged. The data is buffered
+    /// because the upload must not be started before the version is checked.
+    /// </summary>
+    protected IWriteTransaction OpenWriteTransactionIfUnchanged(IOConnectionInfo ioc, bool useFileTransaction, string expectedVersion)
+    {
+      return new JavaFileStorageWriteTransaction(IocToPath(ioc), useFileTransaction, expectedVersion, this);
     }
 
+    /// <summary>
+    /// Uploads data only if the file still has expectedVersion. Must be overridden by storages
+    /// which use OpenWriteTransactionIfUnchanged.
+    /// </summary>
+    protected virtual void UploadFileIfUnchanged(string path, byte[] data, bool useFileTransaction, string expectedVersion)
+    {
+      throw new NotSupportedException();
+    }
+
+    /// <summary>
+    /// Preference which enables keeping encrypted copies of downloaded files so that reopening an unchanged file needs no download.
+    /// </summary>
+    public const string ContentCacheEnabledPrefKey = "ContentCacheEnabled";
+    private const long ContentCacheMaxBytes = 64 * 1024 * 1024;
+
+    private ContentCachingFileStorage _contentCachingJfs;
+    private bool _contentCacheUnavailable;
+
     internal IJavaFileStorage Jfs
     {
-      get { return _jfs; }
+      get
+      {
+        if (!PreferenceManager.GetDefaultSharedPreferences(Application.Context)
+                .GetBoolean(ContentCacheEnabledPrefKey, false))
+          return _jfs;
+        if (_contentCachingJfs == null && !_contentCacheUnavailable)
+        {
+          try
+          {
+            _contentCachingJfs = new ContentCachingFileStorage(_jfs, Application.Context, ContentCacheMaxBytes);
+          }
+          catch (Java.Lang.Exception e)
+          {
+            Kp2aLog.Log("Content cache not available: " + e.Message);
+            _contentCacheUnavailable = true;
+          }
+        }
+        return (IJavaFileStorage)_contentCachingJfs ?? _jfs;
+      }
     }
 
 
@@ -158,13 +213,15 @@ namespace keepass2android.Io
     {
       private readonly string _path;
       private readonly bool _useFileTransaction;
+      private readonly string _expectedVersion;
       private readonly JavaFileStorage _javaFileStorage;
       private MemoryStream _memoryStream;
 
-      public JavaFileStorageWriteTransaction(string path, bool useFileTransaction, JavaFileStorage javaFileStorage)
+      public JavaFileStorageWriteTransaction(string path, bool useFileTransaction, string expectedVersion, JavaFileStorage javaFileStorage)
       {
         _path = path;
         _useFileTransaction = useFileTransaction;
+        _expectedVersion = expectedVersion;
         _javaFileStorage = javaFileStorage;
       }
 
@@ -183,12 +240,137 @@ namespace keepass2android.Io
       {
         try
         {
-          _javaFileStorage.Jfs.UploadFile(_path, _memoryStream.ToArray(), _useFileTransaction);
+          if (_expectedVersion != null)
+            _javaFileStorage.UploadFileIfUnchanged(_path, _memoryStream.ToArray(), _useFileTransaction, _expectedVersion);
+          else
+            _javaFileStorage.Jfs.UploadFile(_path, _memoryStream.ToArray(), _useFileTransaction);
+        }
+        catch (Java.Lang.Exception e)
+        {
+          throw _javaFileStorage.LogAndConvertJavaException(e);
+        }
+      }
+    }
+
+    class JavaFileStorageStreamingWriteTransaction : IWriteTransaction
+    {
+      private readonly string _path;
+      private readonly JavaFileStorage _javaFileStorage;
+      private UploadOutputStream _uploadStream;
+      private bool _committed;
+
+      public JavaFileStorageStreamingWriteTransaction(string path, JavaFileStorage javaFileStorage)
+      {
+        _path = path;
+        _javaFileStorage = javaFileStorage;
+      }
+
+      public void Dispose()
+      {
+        if ((_uploadStream != null) && !_committed)
+          _uploadStream.Abort();
+      }
+
+      public Stream OpenFile()
+      {
+        try
+        {
+          _uploadStream = _javaFileStorage.Jfs.OpenFileForWrite(_path, true);
         }
         catch (Java.Lang.Exception e)
         {
           throw _javaFileStorage.LogAndConvertJavaException(e);
         }
+        return new UploadStream(this);
+      }
+
+      public void CommitWrite()
+      {
+        try
+        {
+          _uploadStream.Close();
+          _committed = true;
+        }
+        catch (Java.Lang.Exception e)
+        {
+          throw ConvertUploadException(e);
+        }
+      }
+
+      private Exception ConvertUploadException(Java.Lang.Exception e)
+      {
+        //UploadOutputStream reports failures of the storage as IOException with the original cause
+        if ((e is Java.IO.IOException) && (e.Cause is Java.Lang.Exception cause))
+          return _javaFileStorage.LogAndConvertJavaException(cause);
+        return _javaFileStorage.LogAndConvertJavaException(e);
+      }
+
+      //write-only stream passing the data to the upload. Closing it does not complete the upload, this is done in CommitWrite.
+      class UploadStream : Stream
+      {
+        private readonly JavaFileStorageStreamingWriteTransaction _transaction;
+
+        public UploadStream(JavaFileStorageStreamingWriteTransaction transaction)
+        {
+          _transaction = transaction;
+        }
+
+        public override void Write(byte[] buffer, int offset, int count)
+        {
+          try
+          {
+            _transaction._uploadStream.Write(buffer, offset, count);
+          }
+          catch (Java.Lang.Exception e)
+          {
+            throw _transaction.ConvertUploadException(e);
+          }
+        }
+
+        public override void Flush()
+        {
+        }
+
+        public override int Read(byte[] buffer, int offset, int count)
+        {
+          throw new NotSupportedException();
+        }
+
+        public override long Seek(long offset, SeekOrigin origin)
+        {
+          throw new NotSupportedException();
+        }
+
+        public override void SetLength(long value)
+        {
+          throw new NotSupportedException();
+        }
+
+        public override bool CanRead
+        {
+          get { return false; }
+        }
+
+        public override bool CanSeek
+        {
+          get { return false; }
+        }
+
+        public override bool CanWrite
+        {
+          get { return true; }
+        }
+
+        public override long Length
+        {
+          get { throw new NotSupportedException(); }
+        }
+
+        public override long Position
+        {
+          get { throw new NotSupportedException(); }
+          set { throw new NotSupportedException(); }
+        }
       }
     }
 
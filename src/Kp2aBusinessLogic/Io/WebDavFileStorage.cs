@@ -15,6 +15,7 @@
 
 using System;
 using System.Collections.Generic;
+using System.IO;
 using System.Linq;
 using System.Text;
 
@@ -34,7 +35,7 @@ using KeePassLib.Serialization;
 namespace keepass2android.Io
 {
 #if !NoNet && !EXCLUDE_JAVAFILESTORAGE
-  public class WebDavFileStorage : JavaFileStorage
+  public class WebDavFileStorage : JavaFileStorage, IVersionCheckingFileStorage
   {
     private readonly IKp2aApp _app;
     private readonly WebDavStorage baseWebdavStorage;
@@ -42,7 +43,7 @@ namespace keepass2android.Io
     public WebDavFileStorage(IKp2aApp app, int chunkSize, Context appContext) : base(new Keepass2android.Javafilestorage.WebDavStorage(app.CertificateErrorHandler, chunkSize, appContext), app)
     {
       _app = app;
-      baseWebdavStorage = (WebDavStorage)Jfs;
+      baseWebdavStorage = (WebDavStorage)_jfs;
 
     }
 
@@ -94,7 +95,7 @@ namespace keepass2android.Io
       if (!String.IsNullOrEmpty(ioc.UserName))
       {
         //legacy support. Some users may have stored IOCs with UserName inside.
-        return ((WebDavStorage)Jfs).BuildFullPath(ioc.Path, ioc.UserName, ioc.Password);
+        return ((WebDavStorage)_jfs).BuildFullPath(ioc.Path, ioc.UserName, ioc.Password);
       }
       string path = base.IocToPath(ioc);
       //make sure the path is normalized, e.g. spaces and umlauts are percent encoded.
@@ -109,6 +110,33 @@ namespace keepass2android.Io
       baseWebdavStorage.SetUploadChunkSize(_app.WebDavChunkedUploadSize);
       return base.OpenWriteTransaction(ioc, useFileTransaction);
     }
+
+    public IWriteTransaction OpenWriteTransaction(IOConnectionInfo ioc, bool useFileTransaction, string expectedVersion)
+    {
+      baseWebdavStorage.SetUploadChunkSize(_app.WebDavChunkedUploadSize);
+      return OpenWriteTransactionIfUnchanged(ioc, useFileTransaction, expectedVersion);
+    }
+
+    protected override void UploadFileIfUnchanged(string path, byte[] data, bool useFileTransaction, string expectedVersion)
+    {
+      baseWebdavStorage.UploadFileIfUnchanged(path, data, useFileTransaction, expectedVersion);
+    }
+
+    public Stream OpenFileForReadIfChanged(IOConnectionInfo ioc, string knownVersion)
+    {
+      try
+      {
+        return baseWebdavStorage.OpenFileForReadIfChanged(IocToPath(ioc), knownVersion);
+      }
+      catch (Java.IO.FileNotFoundException e)
+      {
+        throw new System.IO.FileNotFoundException(e.Message, e);
+      }
+      catch (Java.Lang.Exception e)
+      {
+        throw LogAndConvertJavaException(e);
+      }
+    }
   }
 
 
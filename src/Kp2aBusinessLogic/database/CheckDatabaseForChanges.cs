@@ -54,10 +54,27 @@ namespace keepass2android
         //download file from remote location and calculate hash:
         StatusLogger.UpdateSubMessage(_app.GetResourceString(UiStringKey.DownloadingRemoteFile));
 
+        Stream remoteStream;
+        var versionCheckingFileStorage = fileStorage as IVersionCheckingFileStorage;
+        string lastFileVersion = _app.CurrentDb.LastFileVersion;
+        if ((versionCheckingFileStorage != null) && !String.IsNullOrEmpty(lastFileVersion))
+        {
+          //nothing is downloaded if the file still has the version we loaded
+          remoteStream = versionCheckingFileStorage.OpenFileForReadIfChanged(ioc, lastFileVersion);
+          if (remoteStream == null)
+          {
+            Finish(true, _app.GetResourceString(UiStringKey.RemoteDatabaseUnchanged));
+            return;
+          }
+        }
+        else
+        {
+          remoteStream = fileStorage.OpenFileForRead(ioc);
+        }
 
         MemoryStream remoteData = new MemoryStream();
         using (
-            HashingStreamEx hashingRemoteStream = new HashingStreamEx(fileStorage.OpenFileForRead(ioc), false,
+            HashingStreamEx hashingRemoteStream = new HashingStreamEx(remoteStream, false,
                                                                         new SHA256Managed()))
         {
           hashingRemoteStream.CopyTo(remoteData);
@@ -227,8 +227,20 @@ namespace keepass2android
 
     public void SaveData(IFileStorage fileStorage)
     {
+      SaveData(fileStorage, null);
+    }
 
-      using (IWriteTransaction trans = fileStorage.OpenWriteTransaction(Ioc, _app.GetBooleanPreference(PreferenceKey.UseFileTransactions)))
+    /// <summary>
+    /// Saves the database. If expectedFileVersion is given and the file storage supports it, the file is only
+    /// replaced if it still has this version, otherwise FileVersionConflictException is thrown.
+    /// </summary>
+    public void SaveData(IFileStorage fileStorage, string expectedFileVersion)
+    {
+      bool useFileTransaction = _app.GetBooleanPreference(PreferenceKey.UseFileTransactions);
+      var versionCheckingFileStorage = fileStorage as IVersionCheckingFileStorage;
+      using (IWriteTransaction trans = (!String.IsNullOrEmpty(expectedFileVersion) && versionCheckingFileStorage != null)
+                 ? versionCheckingFileStorage.OpenWriteTransaction(Ioc, useFileTransaction, expectedFileVersion)
+                 : fileStorage.OpenWriteTransaction(Ioc, useFileTransaction))
       {
         DatabaseFormat.Save(KpDatabase, trans.OpenFile());
 
@@ -20,6 +20,8 @@ using System.Linq;
 using System.Security.Cryptography;
 #if !EXCLUDE_KEYTRANSFORM
 using Android.App;
+using Android.Preferences;
+using Com.Keepassdroid.Crypto.Finalkey;
 using Com.Keepassdroid.Database;
 using Com.Keepassdroid.Database.Exception;
 #endif
@@ -40,6 +42,8 @@ namespace keepass2android
 {
   public class KdbDatabaseFormat : IDatabaseFormat
   {
+    public const string TransformedKeyCachePrefKey = "KdbTransformedKeyCache";
+
     private readonly IKp2aApp _app;
     private Dictionary<PwUuid, AdditionalGroupData> _groupData = new Dictionary<PwUuid, AdditionalGroupData>();
     private static readonly DateTime _expireNever = new DateTime(2999, 12, 28, 23, 59, 59);
@@ -50,9 +54,23 @@ namespace keepass2android
       _app = app;
     }
 
+    /// <summary>
+    /// Wipes the transformed keys kept for reopening .kdb files. Call when the app is locked.
+    /// </summary>
+    public static void ClearTransformedKeyCache()
+    {
+#if !EXCLUDE_KEYTRANSFORM
+      TransformedKeyCache.Clear();
+#endif
+    }
+
     public void PopulateDatabaseFromStream(PwDatabase db, Stream s, IStatusLogger slLogger)
     {
 #if !EXCLUDE_KEYTRANSFORM
+      //opt-in: reopening the same file (e.g. after a sync conflict) then skips the key transformation
+      TransformedKeyCache.SetEnabled(PreferenceManager.GetDefaultSharedPreferences(Application.Context)
+          .GetBoolean(TransformedKeyCachePrefKey, false), TransformedKeyCache.DefaultTtlMillis);
+
       var importer = new Com.Keepassdroid.Database.Load.ImporterV3();
 
       var hashingStream = new HashingStreamEx(s, false, new SHA256Managed());
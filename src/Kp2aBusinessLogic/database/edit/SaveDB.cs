@@ -157,48 +157,22 @@ namespace keepass2android
           {
             Kp2aLog.Log("Conflict. " + hasStreamForOrigFile + " " + hasChangeFast + " " + hasHashChanged);
 
-            bool alwaysMerge = (PreferenceManager.GetDefaultSharedPreferences(Application.Context)
-                .GetBoolean("AlwaysMergeOnConflict", false));
-
-            if (alwaysMerge)
+            HandleConflict(fileStorage, ioc);
+          }
+          else
+          {
+            try
             {
-              MergeAndFinish(fileStorage, ioc);
+              //the file might be modified after the check. If the file storage supports it, only replace
+              //the file if it still has the version we loaded.
+              PerformSaveWithoutCheck(fileStorage, ioc, _db.LastFileVersion);
             }
-            else
+            catch (FileVersionConflictException)
             {
-
-
-              //ask user...
-              _app.AskYesNoCancel(UiStringKey.TitleSyncQuestion, UiStringKey.MessageSyncQuestion,
-                  UiStringKey.YesSynchronize,
-                  UiStringKey.NoOverwrite,
-                  //yes = sync
-                  (sender, args) =>
-                  {
-                    Action runHandler = () => { MergeAndFinish(fileStorage, ioc); };
-                    RunInWorkerThread(runHandler);
-                  },
-                  //no = overwrite
-                  (sender, args) =>
-                  {
-                    RunInWorkerThread(() =>
-                                      {
-                                        PerformSaveWithoutCheck(fileStorage, ioc);
-                                        FinishWithSuccess();
-                                      });
-                  },
-                  //cancel 
-                  (sender, args) =>
-                  {
-                    RunInWorkerThread(() => Finish(false));
-                  }
-                  );
+              Kp2aLog.Log("Conflict detected when uploading.");
+              HandleConflict(fileStorage, ioc);
+              return;
             }
-
-          }
-          else
-          {
-            PerformSaveWithoutCheck(fileStorage, ioc);
             FinishWithSuccess();
           }
 
@@ -224,6 +198,47 @@ namespace keepass2android
 
     }
 
+    private void HandleConflict(IFileStorage fileStorage, IOConnectionInfo ioc)
+    {
+      bool alwaysMerge = (PreferenceManager.GetDefaultSharedPreferences(Application.Context)
+          .GetBoolean("AlwaysMergeOnConflict", false));
+
+      if (alwaysMerge)
+      {
+        MergeAndFinish(fileStorage, ioc);
+      }
+      else
+      {
+
+
+        //ask user...
+        _app.AskYesNoCancel(UiStringKey.TitleSyncQuestion, UiStringKey.MessageSyncQuestion,
+            UiStringKey.YesSynchronize,
+            UiStringKey.NoOverwrite,
+            //yes = sync
+            (sender, args) =>
+            {
+              Action runHandler = () => { MergeAndFinish(fileStorage, ioc); };
+              RunInWorkerThread(runHandler);
+            },
+            //no = overwrite
+            (sender, args) =>
+            {
+              RunInWorkerThread(() =>
+                                {
+                                  PerformSaveWithoutCheck(fileStorage, ioc);
+                                  FinishWithSuccess();
+                                });
+            },
+            //cancel 
+            (sender, args) =>
+            {
+              RunInWorkerThread(() => Finish(false));
+            }
+            );
+      }
+    }
+
     public bool SyncInBackground { get; set; }
 
     private void FinishWithSuccess()
@@ -354,10 +369,10 @@ namespace keepass2android
       return fileStorage.OpenFileForRead(ioc);
     }
 
-    private void PerformSaveWithoutCheck(IFileStorage fileStorage, IOConnectionInfo ioc)
+    private void PerformSaveWithoutCheck(IFileStorage fileStorage, IOConnectionInfo ioc, string expectedFileVersion = null)
     {
       StatusLogger.UpdateSubMessage("");
-      _db.SaveData(fileStorage);
+      _db.SaveData(fileStorage, expectedFileVersion);
       _db.LastFileVersion = fileStorage.GetCurrentFileVersionFast(ioc);
     }
 
@@ -0,0 +1,538 @@
+/*
+ * This file is part of Keepass2Android, Copyright 2025 Philipp Crocoll.
+ *
+ *   Keepass2Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Keepass2Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Keepass2Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package keepass2android.javafilestorage;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Bundle;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Decorator which keeps a local copy of every file read through the wrapped storage. Copies are
+ * stored AES-GCM encrypted and are bound to the version token returned by
+ * {@link JavaFileStorage#getCurrentFileVersionFast(String)}: opening a file only asks the backend
+ * for the current token and serves the local copy if it is unchanged. Storages which cannot
+ * provide a token are passed through without caching.
+ * The cache is limited in size; the least recently used copies are removed first.
+ */
+public class ContentCachingFileStorage implements JavaFileStorage {
+
+	private static final String TAG = "ContentCachingFileStorage";
+	private static final String KEYSTORE_ALIAS = "keepass2android.javafilestorage.contentcache";
+	private static final String KEY_FILE_NAME = "contentcache.key";
+	private static final String ENTRY_SUFFIX = ".bin";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final int MAGIC = 0x4b324343; // "K2CC"
+	private static final int TAG_LENGTH_BITS = 128;
+
+	private final JavaFileStorage _storage;
+	private final File _cacheDir;
+	private final long _maxCacheBytes;
+	private final SecretKey _key;
+
+	//entry file name -> size, in least recently used order. null until loaded from _cacheDir.
+	private LinkedHashMap<String, Long> _entries;
+	private long _cachedBytes;
+
+	private final AtomicLong _hits = new AtomicLong();
+	private final AtomicLong _misses = new AtomicLong();
+
+	public ContentCachingFileStorage(JavaFileStorage storage, Context appContext, long maxCacheBytes) throws GeneralSecurityException, IOException {
+		this(storage, new File(appContext.getCacheDir(), "jfs_content"), maxCacheBytes, getOrCreateKey(appContext));
+	}
+
+	public ContentCachingFileStorage(JavaFileStorage storage, File cacheDir, long maxCacheBytes, SecretKey key) {
+		_storage = storage;
+		_cacheDir = cacheDir;
+		_maxCacheBytes = maxCacheBytes;
+		_key = key;
+	}
+
+	public JavaFileStorage getWrappedStorage() {
+		return _storage;
+	}
+
+	public long getCacheHits() {
+		return _hits.get();
+	}
+
+	public long getCacheMisses() {
+		return _misses.get();
+	}
+
+	public synchronized long getCachedBytes() {
+		loadEntries();
+		return _cachedBytes;
+	}
+
+	public synchronized void clearCache() {
+		loadEntries();
+		for (String name : _entries.keySet())
+			new File(_cacheDir, name).delete();
+		_entries.clear();
+		_cachedBytes = 0;
+	}
+
+	@Override
+	public InputStream openFileForRead(String path) throws Exception {
+		String version = null;
+		try {
+			version = _storage.getCurrentFileVersionFast(path);
+		} catch (Exception e) {
+			Log.d(TAG, "no version for " + path + ": " + e);
+		}
+		if (version == null || version.isEmpty()) {
+			_misses.incrementAndGet();
+			return _storage.openFileForRead(path);
+		}
+
+		byte[] versionHash = versionHash(path, version);
+		byte[] cached = readEntry(entryName(path), versionHash);
+		if (cached != null) {
+			_hits.incrementAndGet();
+			return new ByteArrayInputStream(cached);
+		}
+		_misses.incrementAndGet();
+		InputStream remote = _storage.openFileForRead(path);
+		try {
+			return new CachingInputStream(remote, entryName(path), versionHash);
+		} catch (Exception e) {
+			Log.w(TAG, "not caching " + path + ": " + e);
+			return remote;
+		}
+	}
+
+	@Override
+	public void uploadFile(String path, byte[] data, boolean writeTransactional) throws Exception {
+		invalidate(path);
+		//no write-through: a version token queried after the upload may already belong to
+		//another client's write, so the next read fetches the file again
+		_storage.uploadFile(path, data, writeTransactional);
+	}
+
+	@Override
+	public void uploadFile(String path, InputStream data, long length, boolean writeTransactional) throws Exception {
+		invalidate(path);
+		_storage.uploadFile(path, data, length, writeTransactional);
+	}
+
+	@Override
+	public UploadOutputStream openFileForWrite(String path, boolean writeTransactional) throws Exception {
+		return new UploadOutputStream(this, path, writeTransactional);
+	}
+
+	@Override
+	public void delete(String path) throws Exception {
+		invalidate(path);
+		_storage.delete(path);
+	}
+
+	private void invalidate(String path) {
+		String name = entryName(path);
+		synchronized (this) {
+			loadEntries();
+			removeEntry(name);
+		}
+	}
+
+	private byte[] readEntry(String name, byte[] expectedVersionHash) {
+		File file = new File(_cacheDir, name);
+		synchronized (this) {
+			loadEntries();
+			if (_entries.get(name) == null)
+				return null;
+		}
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			if (in.readInt() != MAGIC)
+				throw new IOException("bad magic");
+			byte[] versionHash = new byte[expectedVersionHash.length];
+			in.readFully(versionHash);
+			if (!MessageDigest.isEqual(versionHash, expectedVersionHash)) {
+				//outdated copy. It will be replaced by the download which follows.
+				return null;
+			}
+			byte[] iv = new byte[in.readUnsignedByte()];
+			in.readFully(iv);
+			byte[] encrypted = new byte[(int) (file.length() - 4 - versionHash.length - 1 - iv.length)];
+			in.readFully(encrypted);
+
+			Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+			cipher.init(Cipher.DECRYPT_MODE, _key, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+			cipher.updateAAD(versionHash);
+			byte[] data = cipher.doFinal(encrypted);
+
+			synchronized (this) {
+				_entries.get(name); //access order
+			}
+			file.setLastModified(System.currentTimeMillis());
+			return data;
+		} catch (Exception e) {
+			Log.w(TAG, "dropping unreadable cache entry: " + e);
+			synchronized (this) {
+				removeEntry(name);
+			}
+			return null;
+		}
+	}
+
+	private OutputStream openEntryForWrite(File temp, byte[] versionHash) throws GeneralSecurityException, IOException {
+		_cacheDir.mkdirs();
+		Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+		//let the provider choose the IV, Android keystore keys don't accept caller-provided ones.
+		cipher.init(Cipher.ENCRYPT_MODE, _key);
+		cipher.updateAAD(versionHash);
+		byte[] iv = cipher.getIV();
+
+		FileOutputStream fos = new FileOutputStream(temp);
+		try {
+			ByteArrayOutputStream header = new ByteArrayOutputStream();
+			header.write(new byte[]{(byte) (MAGIC >>> 24), (byte) (MAGIC >>> 16), (byte) (MAGIC >>> 8), (byte) MAGIC});
+			header.write(versionHash);
+			header.write(iv.length);
+			header.write(iv);
+			fos.write(header.toByteArray());
+			return new CipherOutputStream(fos, cipher);
+		} catch (IOException e) {
+			fos.close();
+			temp.delete();
+			throw e;
+		}
+	}
+
+	private synchronized void commitEntry(File temp, String name) throws IOException {
+		loadEntries();
+		removeEntry(name);
+		File file = new File(_cacheDir, name);
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("failed to rename cache entry");
+		}
+		_entries.put(name, file.length());
+		_cachedBytes += file.length();
+		trimToSize();
+	}
+
+	private void removeEntry(String name) {
+		Long size = _entries.remove(name);
+		if (size != null)
+			_cachedBytes -= size;
+		new File(_cacheDir, name).delete();
+	}
+
+	private void trimToSize() {
+		Iterator<Map.Entry<String, Long>> it = _entries.entrySet().iterator();
+		while (_cachedBytes > _maxCacheBytes && it.hasNext()) {
+			Map.Entry<String, Long> eldest = it.next();
+			new File(_cacheDir, eldest.getKey()).delete();
+			_cachedBytes -= eldest.getValue();
+			it.remove();
+		}
+	}
+
+	private void loadEntries() {
+		if (_entries != null)
+			return;
+		_entries = new LinkedHashMap<>(16, 0.75f, true);
+		_cachedBytes = 0;
+		File[] files = _cacheDir.listFiles();
+		if (files == null)
+			return;
+		Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+		for (File f : files) {
+			if (f.getName().endsWith(ENTRY_SUFFIX)) {
+				_entries.put(f.getName(), f.length());
+				_cachedBytes += f.length();
+			} else if (f.getName().endsWith(TEMP_SUFFIX)) {
+				f.delete(); //left over from an interrupted download
+			}
+		}
+		trimToSize();
+	}
+
+	//paths may contain credentials, so neither paths nor version tokens are stored in clear text.
+	private static String entryName(String path) {
+		return toHex(sha256(path.getBytes(StandardCharsets.UTF_8))) + ENTRY_SUFFIX;
+	}
+
+	private static byte[] versionHash(String path, String version) {
+		return sha256((path + '\0' + version).getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static byte[] sha256(byte[] data) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(data);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String toHex(byte[] data) {
+		StringBuilder sb = new StringBuilder(data.length * 2);
+		for (byte b : data)
+			sb.append(String.format("%02x", b));
+		return sb.toString();
+	}
+
+	private static SecretKey getOrCreateKey(Context appContext) throws GeneralSecurityException, IOException {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+			KeyStore keyStore = KeyStore.getInstance("AndroidKeyStore");
+			keyStore.load(null);
+			if (keyStore.containsAlias(KEYSTORE_ALIAS))
+				return (SecretKey) keyStore.getKey(KEYSTORE_ALIAS, null);
+			KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, "AndroidKeyStore");
+			generator.init(new KeyGenParameterSpec.Builder(KEYSTORE_ALIAS,
+					KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+					.setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+					.setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+					.setKeySize(256)
+					.build());
+			return generator.generateKey();
+		}
+		//no keystore support for AES before Android 6, keep the key in the private no-backup folder
+		File keyFile = new File(appContext.getNoBackupFilesDir(), KEY_FILE_NAME);
+		if (keyFile.length() == 32) {
+			byte[] key = new byte[32];
+			try (DataInputStream in = new DataInputStream(new FileInputStream(keyFile))) {
+				in.readFully(key);
+			}
+			return new SecretKeySpec(key, "AES");
+		}
+		SecretKey key = KeyGenerator.getInstance("AES").generateKey();
+		try (FileOutputStream fos = new FileOutputStream(keyFile)) {
+			fos.write(key.getEncoded());
+		}
+		return key;
+	}
+
+	/**
+	 * Passes the downloaded file through and writes an encrypted copy to a temporary file. The
+	 * copy becomes a cache entry when the file has been read completely; otherwise it is discarded.
+	 */
+	private class CachingInputStream extends FilterInputStream {
+		private final String _name;
+		private final File _temp;
+		private OutputStream _copy;
+		private long _length;
+
+		CachingInputStream(InputStream in, String name, byte[] versionHash) throws GeneralSecurityException, IOException {
+			super(in);
+			_name = name;
+			_temp = new File(_cacheDir, name + "." + Thread.currentThread().getId() + TEMP_SUFFIX);
+			_copy = openEntryForWrite(_temp, versionHash);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b < 0)
+				complete();
+			else
+				copy(new byte[]{(byte) b}, 0, 1);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int count = super.read(b, off, len);
+			if (count < 0)
+				complete();
+			else
+				copy(b, off, count);
+			return count;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			//skipped bytes would be missing in the copy
+			discard();
+			return super.skip(n);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException {
+			discard();
+			super.close();
+		}
+
+		private void copy(byte[] b, int off, int len) {
+			if (_copy == null)
+				return;
+			_length += len;
+			if (_length > _maxCacheBytes) {
+				discard();
+				return;
+			}
+			try {
+				_copy.write(b, off, len);
+			} catch (IOException e) {
+				Log.w(TAG, "failed to write cache entry: " + e);
+				discard();
+			}
+		}
+
+		private void complete() {
+			if (_copy == null)
+				return;
+			try {
+				_copy.close();
+				_copy = null;
+				commitEntry(_temp, _name);
+			} catch (IOException e) {
+				Log.w(TAG, "failed to store cache entry: " + e);
+				discard();
+			}
+		}
+
+		private void discard() {
+			if (_copy == null)
+				return;
+			try {
+				_copy.close();
+			} catch (IOException ignored) {
+			}
+			_copy = null;
+			_temp.delete();
+		}
+	}
+
+	@Override
+	public boolean requiresSetup(String path) {
+		return _storage.requiresSetup(path);
+	}
+
+	@Override
+	public void startSelectFile(FileStorageSetupInitiatorActivity activity, boolean isForSave, int requestCode) {
+		_storage.startSelectFile(activity, isForSave, requestCode);
+	}
+
+	@Override
+	public void prepareFileUsage(Context appContext, String path) throws UserInteractionRequiredException, Throwable {
+		_storage.prepareFileUsage(appContext, path);
+	}
+
+	@Override
+	public void prepareFileUsage(FileStorageSetupInitiatorActivity activity, String path, int requestCode, boolean alwaysReturnSuccess) {
+		_storage.prepareFileUsage(activity, path, requestCode, alwaysReturnSuccess);
+	}
+
+	@Override
+	public String getProtocolId() {
+		return _storage.getProtocolId();
+	}
+
+	@Override
+	public String getDisplayName(String path) {
+		return _storage.getDisplayName(path);
+	}
+
+	@Override
+	public String getFilename(String path) throws Exception {
+		return _storage.getFilename(path);
+	}
+
+	@Override
+	public boolean checkForFileChangeFast(String path, String previousFileVersion) throws Exception {
+		return _storage.checkForFileChangeFast(path, previousFileVersion);
+	}
+
+	@Override
+	public String getCurrentFileVersionFast(String path) throws Exception {
+		return _storage.getCurrentFileVersionFast(path);
+	}
+
+	@Override
+	public String createFolder(String parentPath, String newDirName) throws Exception {
+		return _storage.createFolder(parentPath, newDirName);
+	}
+
+	@Override
+	public String createFilePath(String parentPath, String newFileName) throws Exception {
+		return _storage.createFilePath(parentPath, newFileName);
+	}
+
+	@Override
+	public List<FileEntry> listFiles(String parentPath) throws Exception {
+		return _storage.listFiles(parentPath);
+	}
+
+	@Override
+	public FileEntry getFileEntry(String filename) throws Exception {
+		return _storage.getFileEntry(filename);
+	}
+
+	@Override
+	public void onCreate(FileStorageSetupActivity activity, Bundle savedInstanceState) {
+		_storage.onCreate(activity, savedInstanceState);
+	}
+
+	@Override
+	public void onResume(FileStorageSetupActivity activity) {
+		_storage.onResume(activity);
+	}
+
+	@Override
+	public void onStart(FileStorageSetupActivity activity) {
+		_storage.onStart(activity);
+	}
+
+	@Override
+	public void onActivityResult(FileStorageSetupActivity activity, int requestCode, int resultCode, Intent data) {
+		_storage.onActivityResult(activity, requestCode, resultCode, data);
+	}
+
+	@Override
+	public void onRequestPermissionsResult(FileStorageSetupActivity activity, int requestCode, String[] permissions, int[] grantResults) {
+		_storage.onRequestPermissionsResult(activity, requestCode, permissions, grantResults);
+	}
+}
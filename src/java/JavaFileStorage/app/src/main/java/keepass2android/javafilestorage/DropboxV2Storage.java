@@ -35,7 +35,9 @@ import com.dropbox.core.v2.files.DownloadErrorException;
 import com.dropbox.core.v2.files.FileMetadata;
 import com.dropbox.core.v2.files.FolderMetadata;
 import com.dropbox.core.v2.files.GetMetadataErrorException;
+import com.dropbox.core.v2.files.ListFolderContinueErrorException;
 import com.dropbox.core.v2.files.ListFolderErrorException;
+import com.dropbox.core.v2.files.ListFolderLongpollResult;
 import com.dropbox.core.v2.files.ListFolderResult;
 import com.dropbox.core.v2.files.Metadata;
 import com.dropbox.core.v2.files.WriteMode;
@@ -47,7 +49,10 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 import android.app.Activity;
 import android.content.Context;
@@ -174,8 +179,7 @@ public class DropboxV2Storage extends JavaFileStorageBase
             return false;
         path = removeProtocol(path);
         try {
-            Metadata entry = dbxClient.files().getMetadata(path);
-            return !String.valueOf(entry.hashCode()) .equals(previousFileVersion);
+            return !getFileVersion(path).equals(previousFileVersion);
 
         } catch (DbxException e) {
             throw convertException(e);
@@ -187,14 +191,68 @@ public class DropboxV2Storage extends JavaFileStorageBase
     {
         try {
             path = removeProtocol(path);
-            Metadata entry = dbxClient.files().getMetadata(path);
-            return String.valueOf(entry.hashCode());
-        } catch (DbxException e) {
+            return getFileVersion(path);
+        } catch (Exception e) {
             Log.d(TAG, e.toString());
             return "";
         }
     }
 
+    //returns the rev of the file. Looked up in the listing of the parent folder, which is brought up to date
+    //with a single list_folder/continue call no matter how many files of that folder are checked.
+    private String getFileVersion(String path) throws Exception
+    {
+        int lastSlash = path.lastIndexOf('/');
+        if (lastSlash < 0)
+            return getVersion(dbxClient.files().getMetadata(path)); // id-based path
+
+        FolderListing listing = getFolderListing(path.substring(0, lastSlash), false);
+        synchronized (listing)
+        {
+            Metadata entry = listing.entries.get(path.toLowerCase(Locale.ROOT));
+            if (entry == null)
+            {
+                //not seen yet. Later changes are reported by list_folder/continue.
+                entry = dbxClient.files().getMetadata(path);
+                listing.entries.put(entry.getPathLower(), entry);
+            }
+            return getVersion(entry);
+        }
+    }
+
+    private static String getVersion(Metadata entry)
+    {
+        if (entry instanceof FileMetadata)
+            return ((FileMetadata) entry).getRev();
+        return String.valueOf(entry.hashCode());
+    }
+
+    /**
+     * Waits up to timeoutSeconds (30 to 480) for changes in the given folder, using the cursor of the
+     * listing built by listFiles or the version checks. Returns true if there are changes; these are
+     * fetched with the next listFiles or version check.
+     */
+    public boolean waitForFolderChanges(String folderPath, long timeoutSeconds) throws Exception
+    {
+        folderPath = removeProtocol(folderPath);
+        if (folderPath.endsWith("/"))
+            folderPath = folderPath.substring(0, folderPath.length() - 1);
+        String cursor;
+        FolderListing listing = getFolderListing(folderPath, false);
+        synchronized (listing)
+        {
+            cursor = listing.cursor;
+        }
+        try {
+            ListFolderLongpollResult result = dbxClient.files().listFolderLongpoll(cursor, timeoutSeconds);
+            if (result.getBackoff() != null)
+                Thread.sleep(result.getBackoff() * 1000);
+            return result.getChanges();
+        } catch (DbxException e) {
+            throw convertException(e);
+        }
+    }
+
     public InputStream openFileForRead(String path) throws Exception
     {
         try {
@@ -208,7 +266,12 @@ public class DropboxV2Storage extends JavaFileStorageBase
 
     public void uploadFile(String path, byte[] data, boolean writeTransactional) throws Exception
     {
-        ByteArrayInputStream bis = new ByteArrayInputStream(data);
+        uploadFile(path, new ByteArrayInputStream(data), data.length, writeTransactional);
+    }
+
+    @Override
+    public void uploadFile(String path, InputStream data, long length, boolean writeTransactional) throws Exception
+    {
         try {
 
             //try to get the file id from the path and use that to create the uploadBuilder. This should preserve the case of the path.
@@ -235,7 +298,7 @@ public class DropboxV2Storage extends JavaFileStorageBase
 
 
 
-            dbxClient.files().uploadBuilder(path).withMode(WriteMode.OVERWRITE).uploadAndFinish(bis);
+            dbxClient.files().uploadBuilder(path).withMode(WriteMode.OVERWRITE).uploadAndFinish(data);
 
         } catch (DbxException e) {
             throw convertException(e);
@@ -258,6 +321,11 @@ public class DropboxV2Storage extends JavaFileStorageBase
             if (listFolderErrorException.errorValue.getPathValue().isNotFound())
                 return new FileNotFoundException(e.toString());
         }
+        if (ListFolderContinueErrorException.class.isAssignableFrom(e.getClass()) ) {
+            ListFolderContinueErrorException listFolderContinueErrorException = (ListFolderContinueErrorException)e;
+            if (listFolderContinueErrorException.errorValue.isPath() && listFolderContinueErrorException.errorValue.getPathValue().isNotFound())
+                return new FileNotFoundException(e.toString());
+        }
         if (DownloadErrorException.class.isAssignableFrom(e.getClass()) ) {
             DownloadErrorException downloadErrorException = (DownloadErrorException)e;
             if (downloadErrorException.errorValue.getPathValue().isNotFound())
@@ -344,6 +412,8 @@ public class DropboxV2Storage extends JavaFileStorageBase
 
     private void buildSession() {
 
+        clearFolderListings();
+
         DbxCredential credential = getStoredCredential();
         if (credential != null)
         {
@@ -401,33 +471,134 @@ public class DropboxV2Storage extends JavaFileStorageBase
     }
 
 
+    /**
+     * Entries of one folder together with the list_folder cursor they are based on.
+     * list_folder/continue with that cursor returns only the changes since, so keeping the
+     * listing up to date costs O(changes) instead of O(folder size).
+     * A listing is complete if it was built by a full list_folder. Otherwise it was started with
+     * only a cursor and contains the entries looked up since then.
+     */
+    private static class FolderListing
+    {
+        String cursor;
+        boolean complete;
+        final Map<String /*path lower*/, Metadata> entries = new LinkedHashMap<String, Metadata>();
+    }
+
+    private static final int MAX_FOLDER_LISTINGS = 20;
+
+    private final Map<String /*folder path lower*/, FolderListing> mFolderListings =
+            new LinkedHashMap<String, FolderListing>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, FolderListing> eldest) {
+                    return size() > MAX_FOLDER_LISTINGS;
+                }
+            };
+
+    private void clearFolderListings()
+    {
+        synchronized (mFolderListings)
+        {
+            mFolderListings.clear();
+        }
+    }
+
+    //returns the listing of the folder (path without trailing slash, "" for root), brought up to date with the server
+    private FolderListing getFolderListing(String folderPath, boolean requireComplete) throws Exception
+    {
+        String key = folderPath.toLowerCase(Locale.ROOT);
+        FolderListing listing;
+        synchronized (mFolderListings)
+        {
+            listing = mFolderListings.get(key);
+            if (listing == null)
+            {
+                listing = new FolderListing();
+                mFolderListings.put(key, listing);
+            }
+        }
+        try
+        {
+            synchronized (listing)
+            {
+                if ((listing.cursor != null) && (listing.complete || !requireComplete))
+                {
+                    try
+                    {
+                        applyChanges(listing, dbxClient.files().listFolderContinue(listing.cursor));
+                        return listing;
+                    }
+                    catch (ListFolderContinueErrorException e)
+                    {
+                        if (!e.errorValue.isReset())
+                            throw e;
+                        //cursor is no longer valid. Start over.
+                    }
+                }
+                listing.entries.clear();
+                if (requireComplete)
+                {
+                    listing.complete = true;
+                    applyChanges(listing, dbxClient.files().listFolder(folderPath));
+                }
+                else
+                {
+                    listing.complete = false;
+                    listing.cursor = dbxClient.files().listFolderGetLatestCursor(folderPath).getCursor();
+                }
+                return listing;
+            }
+        }
+        catch (Exception e)
+        {
+            synchronized (mFolderListings)
+            {
+                mFolderListings.remove(key);
+            }
+            throw e;
+        }
+    }
+
+    private void applyChanges(FolderListing listing, ListFolderResult result) throws DbxException
+    {
+        while (true)
+        {
+            for (Metadata e: result.getEntries())
+            {
+                if (e instanceof DeletedMetadata)
+                    listing.entries.remove(e.getPathLower());
+                else
+                    listing.entries.put(e.getPathLower(), e);
+            }
+            listing.cursor = result.getCursor();
+
+            if (!result.getHasMore())
+                break;
+
+            result = dbxClient.files().listFolderContinue(result.getCursor());
+        }
+    }
+
     @Override
     public List<FileEntry> listFiles(String parentPath) throws Exception {
         try
         {
             parentPath = removeProtocol(parentPath);
-            if (parentPath.equals("/"))
-                parentPath = ""; //Dropbox is a bit picky here
-            ListFolderResult dirEntry = dbxClient.files().listFolder(parentPath);
+            if (parentPath.endsWith("/"))
+                parentPath = parentPath.substring(0, parentPath.length() - 1); //Dropbox is a bit picky here
 
             List<FileEntry> result = new ArrayList<FileEntry>();
 
-            while (true)
+            FolderListing listing = getFolderListing(parentPath, true);
+            synchronized (listing)
             {
-                for (Metadata e: dirEntry.getEntries())
+                for (Metadata e: listing.entries.values())
                 {
                     FileEntry fileEntry = convertToFileEntry(e);
                     result.add(fileEntry);
                 }
-
-                if (!dirEntry.getHasMore()) {
-                    break;
-                }
-
-                dirEntry = dbxClient.files().listFolderContinue(dirEntry.getCursor());
             }
 
-
             return result;
 
 
@@ -0,0 +1,31 @@
+/*
+ * This file is part of Keepass2Android, Copyright 2025 Philipp Crocoll.
+ *
+ *   Keepass2Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Keepass2Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Keepass2Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package keepass2android.javafilestorage;
+
+/**
+ * Thrown by conditional uploads if the file on the server no longer has the expected version.
+ */
+public class FileVersionConflictException extends Exception {
+
+	public FileVersionConflictException(String path) {
+		super("File was modified on the server: " + path);
+	}
+
+	private static final long serialVersionUID = 1L;
+
+}
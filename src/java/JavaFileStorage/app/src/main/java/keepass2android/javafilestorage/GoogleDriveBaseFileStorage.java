@@ -26,13 +26,18 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.google.api.client.extensions.android.http.AndroidHttp;
 import com.google.api.client.googleapis.extensions.android.gms.auth.GoogleAccountCredential;
 import com.google.api.client.googleapis.extensions.android.gms.auth.UserRecoverableAuthIOException;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.AbstractInputStreamContent;
 import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.InputStreamContent;
 import com.google.api.client.http.GenericUrl;
 import com.google.api.client.http.HttpResponse;
 import com.google.api.client.http.HttpTransport;
@@ -103,6 +108,62 @@ public abstract class GoogleDriveBaseFileStorage extends JavaFileStorageBase {
 	
 	HashMap<String /*accountName*/, AccountData> mAccountData = new HashMap<String, AccountData>();
 
+	//only request the metadata fields which are actually used
+	private static final String FILE_FIELDS = "id,title,mimeType,modifiedDate,fileSize,downloadUrl,md5Checksum,headRevisionId,labels/trashed";
+	private static final String VERSION_FIELDS = "md5Checksum,headRevisionId,modifiedDate,labels/trashed";
+
+	//opening or saving a file requests the metadata of the same file several times (path verification,
+	//getFileForPath, ...). Reuse the result for a few seconds instead of asking Drive again.
+	private static final long METADATA_CACHE_MILLIS = 10 * 1000;
+	private static final int METADATA_CACHE_PRUNE_SIZE = 100;
+
+	class CachedMetadata
+	{
+		final File file;
+		final long timestamp;
+
+		CachedMetadata(File file)
+		{
+			this.file = file;
+			this.timestamp = System.currentTimeMillis();
+		}
+
+		boolean isValid()
+		{
+			return System.currentTimeMillis() - timestamp < METADATA_CACHE_MILLIS;
+		}
+	};
+
+	final ConcurrentHashMap<String /*account/fileId*/, CachedMetadata> mMetadataCache = new ConcurrentHashMap<String, CachedMetadata>();
+
+	private File getFileMetadata(String account, String fileId) throws IOException
+	{
+		CachedMetadata cached = mMetadataCache.get(account + "/" + fileId);
+		if ((cached != null) && cached.isValid())
+			return cached.file;
+		File file = getDriveService(account).files().get(fileId).setFields(FILE_FIELDS).execute();
+		cacheMetadata(account, file);
+		return file;
+	}
+
+	private void cacheMetadata(String account, File file)
+	{
+		if (mMetadataCache.size() >= METADATA_CACHE_PRUNE_SIZE)
+		{
+			for (Iterator<CachedMetadata> it = mMetadataCache.values().iterator(); it.hasNext(); )
+			{
+				if (!it.next().isValid())
+					it.remove();
+			}
+		}
+		mMetadataCache.put(account + "/" + file.getId(), new CachedMetadata(file));
+	}
+
+	private void invalidateMetadata(String account, String fileId)
+	{
+		mMetadataCache.remove(account + "/" + fileId);
+	}
+
 	
 	
 	public String getRootPathForAccount(String accountName) throws UnsupportedEncodingException {
@@ -181,7 +242,7 @@ public abstract class GoogleDriveBaseFileStorage extends JavaFileStorageBase {
 			
 			File fl;
 			try {
-				fl = getDriveService(getAccount()).files().get(getGDriveId()).execute();
+				fl = getFileMetadata(getAccount(), getGDriveId());
 			} catch (Exception e) {
 				e.printStackTrace();
 				throw new FileNotFoundException("error getting file with for "+ this.getFullPath());
@@ -301,15 +362,54 @@ public abstract class GoogleDriveBaseFileStorage extends JavaFileStorageBase {
 	@Override
 	public boolean checkForFileChangeFast(String path,
 			String previousFileVersion) throws Exception {
+		if ((previousFileVersion == null) || previousFileVersion.isEmpty())
+			return false;
 		String currentVersion = getCurrentFileVersionFast(path);
 		if (currentVersion == null)
 			return false;
 		return currentVersion.equals(previousFileVersion) == false;
 	}
 
+	/**
+	 * Returns the md5 checksum of the file content or, for files without checksum, the head
+	 * revision id or modification date. Costs a single files().get() restricted to these fields
+	 * and bypasses the metadata cache; the path is not verified.
+	 */
 	@Override
 	public String getCurrentFileVersionFast(String path) {
-		return null;
+		try
+		{
+			GDrivePath gdrivePath = new GDrivePath();
+			gdrivePath.setPathWithoutVerify(path);
+			String fileId = gdrivePath.getGDriveId();
+			File file = getDriveService(gdrivePath.getAccount()).files().get(fileId)
+					.setFields(VERSION_FIELDS).execute();
+			if ((file.getLabels() != null) && Boolean.TRUE.equals(file.getLabels().getTrashed()))
+				return null;
+
+			String version;
+			if (file.getMd5Checksum() != null)
+				version = "md5:" + file.getMd5Checksum();
+			else if (file.getHeadRevisionId() != null)
+				version = "rev:" + file.getHeadRevisionId();
+			else if (file.getModifiedDate() != null)
+				version = "mod:" + file.getModifiedDate().getValue();
+			else
+				return null;
+
+			//drop cached metadata which is outdated according to this response
+			CachedMetadata cached = mMetadataCache.get(gdrivePath.getAccount() + "/" + fileId);
+			if ((cached != null)
+					&& (!Objects.equals(cached.file.getMd5Checksum(), file.getMd5Checksum())
+						|| !Objects.equals(cached.file.getHeadRevisionId(), file.getHeadRevisionId())))
+				invalidateMetadata(gdrivePath.getAccount(), fileId);
+			return version;
+		}
+		catch (Exception e)
+		{
+			logDebug("getCurrentFileVersionFast failed: " + e);
+			return null;
+		}
 	}
 
 	@Override
@@ -342,7 +442,7 @@ public abstract class GoogleDriveBaseFileStorage extends JavaFileStorageBase {
 			//throw new IOException("argh");
 			String driveId = path.getGDriveId();
 			logDebug("id"+driveId);
-			File file = driveService.files().get(driveId).execute();
+			File file = getFileMetadata(path.getAccount(), driveId);
 			if (file.getLabels().getTrashed())
 				throw new FileNotFoundException(path.getDisplayName() + " is trashed!");
 			logDebug("...done.");
@@ -381,17 +481,32 @@ public abstract class GoogleDriveBaseFileStorage extends JavaFileStorageBase {
 	@Override
 	public void uploadFile(String path, byte[] data, boolean writeTransactional)
 			throws Exception {
+		uploadFile(path, new ByteArrayContent(null, data));
+	}
+
+	@Override
+	public void uploadFile(String path, InputStream data, long length, boolean writeTransactional)
+			throws Exception {
+		uploadFile(path, new InputStreamContent(null, data).setLength(length));
+	}
+
+	private void uploadFile(String path, AbstractInputStreamContent content)
+			throws Exception {
 
 		logDebug("upload file...");		
 		try
 		{
-			ByteArrayContent content = new ByteArrayContent(null, data);
 			GDrivePath gdrivePath = new GDrivePath(path);
 			Drive driveService = getDriveService(gdrivePath.getAccount());
 			
 			File driveFile = getFileForPath(gdrivePath, driveService);
-			getDriveService(gdrivePath.getAccount()).files()
-					.update(driveFile.getId(), driveFile, content).execute();
+			//no metadata in the request: only the content is replaced
+			invalidateMetadata(gdrivePath.getAccount(), driveFile.getId());
+			File updatedFile = driveService.files()
+					.update(driveFile.getId(), null, content)
+					.setFields(FILE_FIELDS)
+					.execute();
+			cacheMetadata(gdrivePath.getAccount(), updatedFile);
 
 			logDebug("upload file ok.");
 		}
@@ -466,12 +581,13 @@ public abstract class GoogleDriveBaseFileStorage extends JavaFileStorageBase {
 			AccountData accountData = mAccountData.get(gdrivePath.getAccount());
 
 			if (!parentId.equals(accountData.mRootFolderId)) {
-				if (driveService.files().get(parentId).execute().getLabels().getTrashed())
+				if (getFileMetadata(gdrivePath.getAccount(), parentId).getLabels().getTrashed())
 					throw new FileNotFoundException(parentPath + " is trashed!");
 			}
 			logDebug("listing files in "+parentId);
 			Files.List request = driveService.files().list()
-					.setQ("trashed=false and '" + parentId + "' in parents");
+					.setQ("trashed=false and '" + parentId + "' in parents")
+					.setFields("nextPageToken,items(" + FILE_FIELDS + ")");
 	
 			do {
 				try {
@@ -479,6 +595,7 @@ public abstract class GoogleDriveBaseFileStorage extends JavaFileStorageBase {
 	
 					for (File file : files.getItems()) {
 	
+						cacheMetadata(gdrivePath.getAccount(), file);
 						String path = new GDrivePath(parentPath, file).getFullPath();
 						logDebug("listing file "+path);
 						FileEntry e = convertToFileEntry(file, path);
@@ -582,6 +699,7 @@ public abstract class GoogleDriveBaseFileStorage extends JavaFileStorageBase {
 		try
 		{
 			driveService.files().delete(gdrivePath.getGDriveId()).execute();
+			invalidateMetadata(gdrivePath.getAccount(), gdrivePath.getGDriveId());
 			
 		}
 		catch (Exception e)
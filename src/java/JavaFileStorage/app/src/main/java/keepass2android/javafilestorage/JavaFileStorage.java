@@ -177,6 +177,13 @@ public class FileEntry {
 	public InputStream openFileForRead(String path) throws Exception;
 	
 	public void uploadFile(String path, byte[] data, boolean writeTransactional) throws Exception;
+
+	//streaming variant of uploadFile which reads data until its end. length is the number of bytes in data or -1 if unknown.
+	public void uploadFile(String path, InputStream data, long length, boolean writeTransactional) throws Exception;
+
+	//returns a stream which uploads everything written to it while it is being written. close() completes the upload
+	//and throws if it failed, UploadOutputStream.abort() cancels it.
+	public UploadOutputStream openFileForWrite(String path, boolean writeTransactional) throws Exception;
 	
 	//creates a folder "newDirName" in parentPath and returns the path of the new folder
 	public String createFolder(String parentPath, String newDirName) throws Exception;
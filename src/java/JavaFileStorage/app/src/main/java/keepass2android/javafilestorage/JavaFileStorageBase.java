@@ -18,9 +18,13 @@
 package keepass2android.javafilestorage;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.sql.Date;
 import java.text.SimpleDateFormat;
@@ -73,6 +77,38 @@ public abstract class JavaFileStorageBase implements JavaFileStorage{
 		   }
 	}
 	
+	//fallback for storages which can only upload byte arrays. Storages which support streaming override this.
+	@Override
+	public void uploadFile(String path, InputStream data, long length, boolean writeTransactional) throws Exception {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(length > 0 ? (int) length : 32 * 1024);
+		byte[] chunk = new byte[8192];
+		int read;
+		while ((read = data.read(chunk)) != -1)
+			buffer.write(chunk, 0, read);
+		uploadFile(path, buffer.toByteArray(), writeTransactional);
+	}
+
+	//writes data to a temporary file in dir, for uploads which must know the length in advance or be replayable.
+	//The caller deletes the file.
+	protected static File spoolToTempFile(InputStream data, File dir) throws IOException {
+		File file = File.createTempFile("upload", ".tmp", dir);
+		try (OutputStream out = new FileOutputStream(file)) {
+			byte[] chunk = new byte[8192];
+			int read;
+			while ((read = data.read(chunk)) != -1)
+				out.write(chunk, 0, read);
+		} catch (IOException e) {
+			file.delete();
+			throw e;
+		}
+		return file;
+	}
+
+	@Override
+	public UploadOutputStream openFileForWrite(String path, boolean writeTransactional) throws Exception {
+		return new UploadOutputStream(this, path, writeTransactional);
+	}
+
 	protected String getProtocolPrefix()
 	{
 		return getProtocolId()+"://";
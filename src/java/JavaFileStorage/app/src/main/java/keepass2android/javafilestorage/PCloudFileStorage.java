@@ -24,7 +24,9 @@ import android.content.SharedPreferences;
 import android.net.Uri;
 import android.os.Bundle;
 
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
 import java.util.ArrayList;
@@ -49,6 +51,9 @@ import com.pcloud.sdk.RemoteFile;
 import com.pcloud.sdk.RemoteFolder;
 import com.pcloud.sdk.UploadOptions;
 
+import okio.BufferedSink;
+import okio.Okio;
+
 /**
  * FileStorage implementation for PCloud provider.
  * https://www.pcloud.com/
@@ -159,9 +164,38 @@ public class PCloudFileStorage extends JavaFileStorageBase
 
     @Override
     public void uploadFile(String path, byte[] data, boolean writeTransactional) throws Exception {
+        uploadFile(path, DataSource.create(data));
+    }
+
+    @Override
+    public void uploadFile(String path, InputStream data, long length, boolean writeTransactional) throws Exception {
+        if (length < 0) {
+            // the upload needs to know the content length in advance. Spool to a temporary file
+            // to learn it without holding the whole file in memory.
+            File spool = spoolToTempFile(data, ctx.getCacheDir());
+            try {
+                uploadFile(path, DataSource.create(spool));
+            } finally {
+                spool.delete();
+            }
+            return;
+        }
+        uploadFile(path, new DataSource() {
+            @Override
+            public long contentLength() {
+                return length;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                sink.writeAll(Okio.source(data));
+            }
+        });
+    }
+
+    private void uploadFile(String path, DataSource dataSource) throws Exception {
         path = this.cleanPath(path);
 
-        DataSource dataSource = DataSource.create(data);
         String filename = path.substring(path.lastIndexOf("/") + 1);
         String filePath = path.substring(0, path.lastIndexOf("/"));
         RemoteFolder remoteFolder = this.getRemoteFolderByPath(filePath);
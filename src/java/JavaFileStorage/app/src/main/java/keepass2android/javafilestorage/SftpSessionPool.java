@@ -0,0 +1,266 @@
+/*
+ * This file is part of Keepass2Android, Copyright 2025 Philipp Crocoll.
+ *
+ *   Keepass2Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Keepass2Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Keepass2Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package keepass2android.javafilestorage;
+
+import android.util.Log;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps authenticated SFTP channels around so that consecutive calls for the same
+ * server and credentials skip the SSH handshake.
+ *
+ * Channels are handed out exclusively by {@link #acquire} and must be given back
+ * through {@link #release} (still usable) or {@link #discard} (state unknown).
+ * Idle channels are closed after {@link #IDLE_TIMEOUT_MS}, and channels that were
+ * idle for a while are probed with a round-trip before they are reused.
+ */
+class SftpSessionPool {
+
+    interface Connector {
+        ChannelSftp connect() throws JSchException;
+    }
+
+    private static final String TAG = "KP2AJFS[pool]";
+
+    static final long IDLE_TIMEOUT_MS = 60 * 1000;
+    /** Channels idle for longer than this are checked with a round-trip before reuse */
+    static final long PROBE_AFTER_MS = 10 * 1000;
+    /** Concurrent channels per key, many servers limit sessions per user */
+    static final int MAX_SESSIONS_PER_KEY = 4;
+    private static final long ACQUIRE_TIMEOUT_MS = 60 * 1000;
+
+    private static class PooledChannel {
+        final String key;
+        final ChannelSftp channel;
+        long idleSince;
+
+        PooledChannel(String key, ChannelSftp channel) {
+            this.key = key;
+            this.channel = channel;
+        }
+    }
+
+    private final Map<String, ArrayDeque<PooledChannel>> idle = new HashMap<>();
+    private final Map<String, Semaphore> permits = new HashMap<>();
+    private final Map<ChannelSftp, PooledChannel> leased = new IdentityHashMap<>();
+
+    private final ScheduledThreadPoolExecutor sweeper;
+
+    SftpSessionPool() {
+        sweeper = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "SftpSessionPool");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.setKeepAliveTime(IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        sweeper.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param key identifies server and credentials, channels are only shared between equal keys
+     * @param connector opens a new channel when there is no usable idle one
+     */
+    ChannelSftp acquire(String key, Connector connector) throws JSchException {
+        Semaphore semaphore = getPermits(key);
+        try {
+            if (!semaphore.tryAcquire(ACQUIRE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new JSchException("Timed out waiting for a free SFTP session");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JSchException("Interrupted while waiting for a free SFTP session", e);
+        }
+
+        try {
+            PooledChannel pooled;
+            while ((pooled = takeIdle(key)) != null) {
+                if (isAlive(pooled)) {
+                    Log.d(TAG, "reusing session");
+                    return lease(pooled);
+                }
+                close(pooled.channel);
+            }
+
+            return lease(new PooledChannel(key, connector.connect()));
+        } catch (JSchException | RuntimeException e) {
+            semaphore.release();
+            throw e;
+        }
+    }
+
+    /** Give back a channel after use. Disconnected channels are dropped. */
+    void release(ChannelSftp channel) {
+        PooledChannel pooled = endLease(channel);
+        if (pooled == null) {
+            return;
+        }
+
+        if (!isConnected(channel)) {
+            close(channel);
+            return;
+        }
+
+        pooled.idleSince = System.currentTimeMillis();
+        synchronized (this) {
+            ArrayDeque<PooledChannel> channels = idle.get(pooled.key);
+            if (channels == null) {
+                channels = new ArrayDeque<>();
+                idle.put(pooled.key, channels);
+            }
+            channels.push(pooled);
+        }
+        sweeper.schedule(this::closeExpired, IDLE_TIMEOUT_MS + 1000, TimeUnit.MILLISECONDS);
+    }
+
+    /** Give back a channel that must not be reused, e.g. after a connection error */
+    void discard(ChannelSftp channel) {
+        endLease(channel);
+        close(channel);
+    }
+
+    /** Close all idle channels, e.g. after keys or known hosts changed */
+    void closeIdle() {
+        List<PooledChannel> toClose = new ArrayList<>();
+        synchronized (this) {
+            for (ArrayDeque<PooledChannel> channels : idle.values()) {
+                toClose.addAll(channels);
+            }
+            idle.clear();
+        }
+        for (PooledChannel pooled : toClose) {
+            close(pooled.channel);
+        }
+    }
+
+    private synchronized Semaphore getPermits(String key) {
+        Semaphore semaphore = permits.get(key);
+        if (semaphore == null) {
+            semaphore = new Semaphore(MAX_SESSIONS_PER_KEY);
+            permits.put(key, semaphore);
+        }
+        return semaphore;
+    }
+
+    private synchronized PooledChannel takeIdle(String key) {
+        ArrayDeque<PooledChannel> channels = idle.get(key);
+        if (channels == null) {
+            return null;
+        }
+        // Most recently used first, it is the least likely to have been dropped by the server
+        PooledChannel pooled = channels.poll();
+        if (channels.isEmpty()) {
+            idle.remove(key);
+        }
+        return pooled;
+    }
+
+    private synchronized ChannelSftp lease(PooledChannel pooled) {
+        leased.put(pooled.channel, pooled);
+        return pooled.channel;
+    }
+
+    private PooledChannel endLease(ChannelSftp channel) {
+        PooledChannel pooled;
+        synchronized (this) {
+            pooled = leased.remove(channel);
+        }
+        if (pooled != null) {
+            getPermits(pooled.key).release();
+        }
+        return pooled;
+    }
+
+    private void closeExpired() {
+        long now = System.currentTimeMillis();
+        List<PooledChannel> toClose = new ArrayList<>();
+        synchronized (this) {
+            Iterator<ArrayDeque<PooledChannel>> it = idle.values().iterator();
+            while (it.hasNext()) {
+                ArrayDeque<PooledChannel> channels = it.next();
+                Iterator<PooledChannel> channelIt = channels.iterator();
+                while (channelIt.hasNext()) {
+                    PooledChannel pooled = channelIt.next();
+                    if (now - pooled.idleSince >= IDLE_TIMEOUT_MS) {
+                        channelIt.remove();
+                        toClose.add(pooled);
+                    }
+                }
+                if (channels.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+        for (PooledChannel pooled : toClose) {
+            Log.d(TAG, "closing idle session");
+            close(pooled.channel);
+        }
+    }
+
+    private boolean isAlive(PooledChannel pooled) {
+        if (!isConnected(pooled.channel)) {
+            return false;
+        }
+        if (System.currentTimeMillis() - pooled.idleSince < PROBE_AFTER_MS) {
+            return true;
+        }
+
+        // The server or a NAT in between may have dropped the connection silently
+        try {
+            pooled.channel.realpath(".");
+            return true;
+        } catch (Exception e) {
+            Log.d(TAG, "dropping stale session: " + e);
+            return false;
+        }
+    }
+
+    private static boolean isConnected(ChannelSftp channel) {
+        try {
+            return channel.isConnected() && !channel.isClosed() && channel.getSession().isConnected();
+        } catch (JSchException e) {
+            return false;
+        }
+    }
+
+    private static void close(ChannelSftp channel) {
+        Session session = null;
+        try {
+            session = channel.getSession();
+        } catch (JSchException e) {
+            // no session to close
+        }
+        channel.disconnect();
+        if (session != null) {
+            session.disconnect();
+        }
+    }
+}
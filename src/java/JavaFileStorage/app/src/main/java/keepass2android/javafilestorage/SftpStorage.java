@@ -20,15 +20,20 @@ package keepass2android.javafilestorage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 import com.jcraft.jsch.Channel;
@@ -79,6 +84,8 @@ public class SftpStorage extends JavaFileStorageBase {
 	private static final String TAG = "KP2AJFS";
 	private static final String THREAD_TAG = TAG + "[thread]";
 	private JSch jsch;
+	private final SftpSessionPool _sessionPool = new SftpSessionPool();
+	private volatile boolean _streamingReads = true;
 
 	public class ConnectionInfo
 	{
@@ -126,25 +133,77 @@ public class SftpStorage extends JavaFileStorageBase {
 
 	private static final String SFTP_PROTOCOL_ID = "sftp";
 
+	/**
+	 * When enabled (the default), openFileForRead returns the live download stream so the
+	 * caller can start decrypting while data is still arriving. When disabled, the file is
+	 * downloaded completely before the stream is returned.
+	 */
+	public void setStreamingReads(boolean streamingReads) {
+		_streamingReads = streamingReads;
+	}
+
 	@Override
 	public boolean checkForFileChangeFast(String path,
 			String previousFileVersion) throws Exception {
+		if ((previousFileVersion == null) || previousFileVersion.isEmpty())
+			return false;
 		String currentVersion = getCurrentFileVersionFast(path);
 		if (currentVersion == null)
 			return false;
 		return currentVersion.equals(previousFileVersion) == false;
 	}
 
+	/**
+	 * Version token from a single stat on a pooled session: size and modification time,
+	 * plus the extended attributes if the server reports any. SFTP v3 has neither inodes
+	 * nor sub-second times, so two writes of equal size within a second look the same.
+	 *
+	 * @return null if the file could not be stat'ed
+	 */
 	@Override
 	public String getCurrentFileVersionFast(String path) {
+		try {
+			ConnectionInfo cInfo = splitStringToConnectionInfo(path);
+			ChannelSftp c = init(cInfo);
+			Exception error = null;
+			try {
+				return getVersionToken(c.stat(cInfo.localPath));
+			} catch (Exception e) {
+				error = e;
+				throw e;
+			} finally {
+				releaseChannel(c, error);
+			}
+		} catch (Exception e) {
+			logDebug("getCurrentFileVersionFast failed: " + e);
+			return null;
+		}
+	}
 
-		return null; // no simple way to get the version "fast"
+	private static String getVersionToken(SftpATTRS attrs) {
+		StringBuilder token = new StringBuilder()
+				.append(attrs.getSize()).append('-').append(attrs.getMTime());
+		String[] extended = attrs.getExtended();
+		if (extended != null && extended.length > 0) {
+			token.append('-').append(sha256Hex(String.join("\0", extended)), 0, 16);
+		}
+		return token.toString();
 	}
 
 	@Override
 	public InputStream openFileForRead(String path) throws Exception {
 		ConnectionInfo cInfo = splitStringToConnectionInfo(path);
 		ChannelSftp c = init(cInfo);
+		Exception error = null;
+
+		if (_streamingReads) {
+			try {
+				return new PooledChannelInputStream(c.get(cInfo.localPath), c);
+			} catch (Exception e) {
+				releaseChannel(c, e);
+				throw convertException(e);
+			}
+		}
 
 		try {
 			byte[] buff = new byte[8000];
@@ -161,32 +220,44 @@ public class SftpStorage extends JavaFileStorageBase {
 			byte[] data = bao.toByteArray();
 
 			ByteArrayInputStream bin = new ByteArrayInputStream(data);
-			c.getSession().disconnect();
 
 			return bin;
 
 		} catch (Exception e) {
-			tryDisconnect(c);
+			error = e;
 			throw convertException(e);
+		} finally {
+			releaseChannel(c, error);
 		}
 	}
 
-	private void tryDisconnect(ChannelSftp c) {
-		try {
-			c.getSession().disconnect();
-		} catch (JSchException je) {
-
+	/**
+	 * Hands the channel back to the session pool. SftpExceptions are regular answers
+	 * from the server, so the channel can be reused after them. After any other error
+	 * the connection state is unknown and the session is closed.
+	 */
+	private void releaseChannel(ChannelSftp c, Exception error) {
+		if (error == null || error instanceof SftpException) {
+			_sessionPool.release(c);
+		} else {
+			_sessionPool.discard(c);
 		}
 	}
 
 	@Override
 	public void uploadFile(String path, byte[] data, boolean writeTransactional)
 			throws Exception {
+		uploadFile(path, new ByteArrayInputStream(data), data.length, writeTransactional);
+	}
+
+	@Override
+	public void uploadFile(String path, InputStream in, long length, boolean writeTransactional)
+			throws Exception {
 
 		ConnectionInfo cInfo = splitStringToConnectionInfo(path);
 		ChannelSftp c = init(cInfo);
+		Exception error = null;
 		try {
-			InputStream in = new ByteArrayInputStream(data);
 			String targetPath = cInfo.localPath;
 			if (writeTransactional)
 			{
@@ -209,11 +280,13 @@ public class SftpStorage extends JavaFileStorageBase {
 			{
 				c.put(in, targetPath);
 			}
-
-			tryDisconnect(c);
 		} catch (Exception e) {
-			tryDisconnect(c);
+			// a put aborted by a failing source stream leaves the channel in an unknown state
+			error = (e instanceof SftpException) && (e.getCause() instanceof IOException)
+					? (IOException) e.getCause() : e;
 			throw e;
+		} finally {
+			releaseChannel(c, error);
 		}
 
 	}
@@ -222,11 +295,11 @@ public class SftpStorage extends JavaFileStorageBase {
 	public String createFolder(String parentPath, String newDirName)
 			throws Exception {
 		ConnectionInfo cInfo = splitStringToConnectionInfo(parentPath);
+		ChannelSftp c = init(cInfo);
+		Exception error = null;
 		try {
-			ChannelSftp c = init(cInfo);
 			String newPath = concatPaths(cInfo.localPath, newDirName);
 			c.mkdir(newPath);
-			tryDisconnect(c);
 
 			return buildFullPath(cInfo.host, cInfo.port, newPath,
 					cInfo.username, cInfo.password, cInfo.connectTimeoutSec,
@@ -234,7 +307,10 @@ public class SftpStorage extends JavaFileStorageBase {
 					cInfo.configOpts.get(SSH_CFG_KEX),
 					cInfo.configOpts.get(SSH_CFG_SERVER_HOST_KEY));
 		} catch (Exception e) {
+			error = e;
 			throw convertException(e);
+		} finally {
+			releaseChannel(c, error);
 		}
 
 	}
@@ -311,8 +387,15 @@ public class SftpStorage extends JavaFileStorageBase {
 	public List<FileEntry> listFiles(String parentPath) throws Exception {
 		ConnectionInfo cInfo = splitStringToConnectionInfo(parentPath);
 		ChannelSftp c = init(cInfo);
-
-		return listFiles(parentPath, c);
+		Exception error = null;
+		try {
+			return listFiles(parentPath, c);
+		} catch (Exception e) {
+			error = e;
+			throw e;
+		} finally {
+			releaseChannel(c, error);
+		}
 	}
 
 	private void setFromAttrs(FileEntry fileEntry, SftpATTRS attrs) {
@@ -345,6 +428,7 @@ public class SftpStorage extends JavaFileStorageBase {
 	public FileEntry getFileEntry(String filename) throws Exception {
 		ConnectionInfo cInfo = splitStringToConnectionInfo(filename);
 		ChannelSftp c = init(cInfo);
+		Exception error = null;
 		try {
 			FileEntry fileEntry = new FileEntry();
 			SftpATTRS attr = c.stat(cInfo.localPath);
@@ -355,13 +439,13 @@ public class SftpStorage extends JavaFileStorageBase {
 
 			fileEntry.displayName = getFilename(cInfo.localPath);
 
-			tryDisconnect(c);
-
 			return fileEntry;
 		} catch (Exception e) {
 			logDebug("Exception in getFileEntry! " + e);
-			tryDisconnect(c);
+			error = e;
 			throw convertException(e);
+		} finally {
+			releaseChannel(c, error);
 		}
 	}
 
@@ -369,8 +453,15 @@ public class SftpStorage extends JavaFileStorageBase {
 	public void delete(String path) throws Exception {
 		ConnectionInfo cInfo = splitStringToConnectionInfo(path);
 		ChannelSftp c = init(cInfo);
-
-		delete(path, c);
+		Exception error = null;
+		try {
+			delete(path, c);
+		} catch (Exception e) {
+			error = e;
+			throw e;
+		} finally {
+			releaseChannel(c, error);
+		}
 	}
 
 	private void delete(String path, ChannelSftp c) throws Exception {
@@ -390,7 +481,6 @@ public class SftpStorage extends JavaFileStorageBase {
 				c.rm(sessionLocalPath);
 			}
 		} catch (Exception e) {
-			tryDisconnect(c);
 			throw convertException(e);
 		}
 
@@ -426,7 +516,6 @@ public class SftpStorage extends JavaFileStorageBase {
 			}
 			return res;
 		} catch (Exception e) {
-			tryDisconnect(c);
 			throw convertException(e);
 		}
 	}
@@ -452,6 +541,38 @@ public class SftpStorage extends JavaFileStorageBase {
 
 
 	ChannelSftp init(ConnectionInfo cInfo) throws JSchException, UnsupportedEncodingException {
+		return _sessionPool.acquire(getSessionKey(cInfo), () -> connect(cInfo));
+	}
+
+	/**
+	 * Channels are only shared between connections with the same server, user, key
+	 * and SSH options. Passwords are part of the key as well, so a session is never
+	 * reused for credentials it was not authenticated with.
+	 */
+	private String getSessionKey(ConnectionInfo cInfo) {
+		StringBuilder key = new StringBuilder()
+				.append(cInfo.username).append('@').append(cInfo.host).append(':').append(cInfo.port)
+				.append("?key=").append(cInfo.keyName)
+				.append("&cfg=").append(new TreeMap<>(cInfo.configOpts))
+				.append("&secret=").append(sha256Hex(cInfo.password + '\0' + cInfo.keyPassphrase));
+		return key.toString();
+	}
+
+	private static String sha256Hex(String value) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			byte[] hash = md.digest(value.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder();
+			for (byte b : hash) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private ChannelSftp connect(ConnectionInfo cInfo) throws JSchException {
 		jsch = new JSch();
 
 		Log.d(TAG, "init SFTP");
@@ -473,11 +594,16 @@ public class SftpStorage extends JavaFileStorageBase {
 		sessionConfigure(session, cInfo);
 		sessionConnect(session, cInfo);
 
-		Channel channel = session.openChannel("sftp");
-		channel.connect();
-		ChannelSftp c = (ChannelSftp) channel;
+		try {
+			Channel channel = session.openChannel("sftp");
+			channel.connect();
+			ChannelSftp c = (ChannelSftp) channel;
 
-		return c;
+			return c;
+		} catch (JSchException e) {
+			session.disconnect();
+			throw e;
+		}
 
 	}
 
@@ -514,6 +640,7 @@ public class SftpStorage extends JavaFileStorageBase {
 	}
 
 	public boolean deleteCustomKey(String keyName) throws FileNotFoundException {
+		_sessionPool.closeIdle();
 		return _keyUtils.deleteCustomKey(keyName);
 	}
 
@@ -528,6 +655,7 @@ public class SftpStorage extends JavaFileStorageBase {
 
 	@SuppressWarnings("unused")  // Exposed by JavaFileStorageBindings
 	public void savePrivateKeyContent(String keyName, String keyContent) throws IOException, Exception {
+		_sessionPool.closeIdle();
 		_keyUtils.savePrivateKeyContent(keyName, keyContent);
 	}
 
@@ -761,6 +889,93 @@ public class SftpStorage extends JavaFileStorageBase {
 
 	}
 
+	/**
+	 * Download stream which holds a pooled channel until the file has been read to the
+	 * end or the stream is closed, whichever comes first. The channel is discarded
+	 * rather than reused if reading or closing the remote file failed.
+	 */
+	private class PooledChannelInputStream extends FilterInputStream {
+		private ChannelSftp _channel;
+		private IOException _error;
+
+		PooledChannelInputStream(InputStream in, ChannelSftp channel) {
+			super(in);
+			_channel = channel;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (_channel == null)
+				return -1;
+			try {
+				int b = super.read();
+				if (b == -1)
+					close();
+				return b;
+			} catch (IOException e) {
+				_error = e;
+				close();
+				throw e;
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (_channel == null)
+				return -1;
+			try {
+				int read = super.read(b, off, len);
+				if (read == -1)
+					close();
+				return read;
+			} catch (IOException e) {
+				_error = e;
+				close();
+				throw e;
+			}
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			if (_channel == null)
+				return 0;
+			try {
+				return super.skip(n);
+			} catch (IOException e) {
+				_error = e;
+				close();
+				throw e;
+			}
+		}
+
+		@Override
+		public int available() throws IOException {
+			return _channel == null ? 0 : super.available();
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			ChannelSftp channel = _channel;
+			if (channel == null)
+				return;
+			_channel = null;
+			try {
+				super.close();
+			} catch (IOException e) {
+				if (_error == null)
+					_error = e;
+				throw e;
+			} finally {
+				releaseChannel(channel, _error);
+			}
+		}
+	}
+
 	/**
 	 * A comparator that compares Map.Entry objects by their keys, via natural ordering.
 	 *
@@ -0,0 +1,202 @@
+/*
+ * This file is part of Keepass2Android, Copyright 2025 Philipp Crocoll.
+ *
+ *   Keepass2Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Keepass2Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Keepass2Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package keepass2android.javafilestorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OutputStream which passes everything written to it to
+ * {@link JavaFileStorage#uploadFile(String, InputStream, long, boolean)} running on a background
+ * thread. At most a few chunks are buffered, so memory use does not depend on the file size.
+ * close() completes the upload and throws if it failed. abort() cancels it; this never replaces
+ * the target of a transactional upload.
+ */
+public class UploadOutputStream extends OutputStream {
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+	private static final int QUEUED_CHUNKS = 4;
+	private static final byte[] END = new byte[0];
+	private static final byte[] ABORT = new byte[0];
+
+	private final BlockingQueue<byte[]> _chunks = new ArrayBlockingQueue<>(QUEUED_CHUNKS);
+	private final FutureTask<Void> _upload;
+	private byte[] _chunk = new byte[CHUNK_SIZE];
+	private int _chunkLength;
+	private boolean _closed;
+
+	public UploadOutputStream(final JavaFileStorage storage, final String path, final boolean writeTransactional) {
+		_upload = new FutureTask<>(() -> {
+			storage.uploadFile(path, new ChunkInputStream(), -1, writeTransactional);
+			return null;
+		});
+		Thread thread = new Thread(_upload, "UploadOutputStream");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		if (_chunkLength == _chunk.length)
+			sendChunk();
+		_chunk[_chunkLength++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		while (len > 0) {
+			if (_chunkLength == _chunk.length)
+				sendChunk();
+			int count = Math.min(len, _chunk.length - _chunkLength);
+			System.arraycopy(b, off, _chunk, _chunkLength, count);
+			_chunkLength += count;
+			off += count;
+			len -= count;
+		}
+	}
+
+	/**
+	 * Completes the upload and waits for it to finish.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (_closed)
+			return;
+		_closed = true;
+		if (_chunkLength > 0)
+			sendChunk();
+		put(END);
+		try {
+			_upload.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			throw uploadFailed(e.getCause());
+		}
+	}
+
+	/**
+	 * Cancels the upload without waiting for the background thread. The storage fails the upload
+	 * when it reads on; a non-transactional upload may leave an incomplete file behind.
+	 */
+	public void abort() {
+		if (_closed)
+			return;
+		_closed = true;
+		_chunk = null;
+		_chunks.clear();
+		_chunks.offer(ABORT);
+	}
+
+	private void ensureOpen() throws IOException {
+		if (_closed)
+			throw new IOException("Stream closed");
+		checkUploadFailed();
+	}
+
+	private void sendChunk() throws IOException {
+		put(_chunkLength == _chunk.length ? _chunk : Arrays.copyOf(_chunk, _chunkLength));
+		_chunk = new byte[CHUNK_SIZE];
+		_chunkLength = 0;
+	}
+
+	private void put(byte[] chunk) throws IOException {
+		try {
+			while (!_chunks.offer(chunk, 100, TimeUnit.MILLISECONDS))
+				checkUploadFailed();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+	}
+
+	//the upload must not finish while there is still data to write
+	private void checkUploadFailed() throws IOException {
+		if (!_upload.isDone())
+			return;
+		try {
+			_upload.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			throw uploadFailed(e.getCause());
+		}
+		throw new IOException("Upload finished before all data was written");
+	}
+
+	private static IOException uploadFailed(Throwable cause) {
+		if (cause instanceof IOException)
+			return (IOException) cause;
+		return new IOException("Upload failed: " + cause.getMessage(), cause);
+	}
+
+	/**
+	 * The upload side of the pipe.
+	 */
+	private class ChunkInputStream extends InputStream {
+		private byte[] _current = new byte[0];
+		private int _position;
+
+		@Override
+		public int read() throws IOException {
+			if (!fill())
+				return -1;
+			return _current[_position++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (!fill())
+				return -1;
+			int count = Math.min(len, _current.length - _position);
+			System.arraycopy(_current, _position, b, off, count);
+			_position += count;
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return _current == END ? 0 : _current.length - _position;
+		}
+
+		private boolean fill() throws IOException {
+			while (_current != END && _position == _current.length) {
+				try {
+					_current = _chunks.take();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+				_position = 0;
+				if (_current == ABORT)
+					throw new IOException("Upload aborted");
+			}
+			return _current != END;
+		}
+	}
+}
@@ -37,9 +37,13 @@ import okhttp3.Response;
 import okhttp3.Request;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
@@ -55,6 +59,7 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
@@ -131,30 +136,120 @@ public class WebDavStorage extends JavaFileStorageBase {
     @Override
     public boolean checkForFileChangeFast(String path,
                                           String previousFileVersion) throws Exception {
+        if ((previousFileVersion == null) || previousFileVersion.isEmpty())
+            return false;
         String currentVersion = getCurrentFileVersionFast(path);
         if (currentVersion == null)
             return false;
         return currentVersion.equals(previousFileVersion) == false;
     }
 
+    /**
+     * Returns the ETag of the file if the server provides one, otherwise a token made of
+     * last modification date and size. Costs a single Depth-0 PROPFIND, or a HEAD request
+     * on servers which refuse PROPFIND. Returns null if no version could be determined.
+     */
     @Override
     public String getCurrentFileVersionFast(String path) {
+        try {
+            ConnectionInfo ci = splitStringToConnectionInfo(path);
+            String version = getVersionFromPropfind(ci);
+            if (version == null)
+                version = getVersionFromHead(ci);
+            return version;
+        } catch (Exception e) {
+            Log.d("WebDavStorage", "getCurrentFileVersionFast failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private String getVersionFromPropfind(ConnectionInfo ci) throws Exception {
+        String requestBody = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<d:propfind xmlns:d=\"DAV:\">\n" +
+                " <d:prop><d:getetag/><d:getlastmodified/><d:getcontentlength/></d:prop>\n" +
+                "</d:propfind>\n";
+        Request request = new Request.Builder()
+                .url(new URL(ci.URL))
+                .method("PROPFIND", RequestBody.create(MediaType.parse("application/xml"), requestBody))
+                .header("Depth", "0")
+                .build();
 
-        return null; // no simple way to get the version "fast"
+        Response response = getClient(ci).newCall(request).execute();
+        try {
+            if ((response.code() == 405) || (response.code() == 501))
+                return null;
+            checkStatus(response);
+            List<PropfindXmlParser.Response> responses = new PropfindXmlParser().parse(new StringReader(response.body().string()));
+            for (PropfindXmlParser.Response r : responses) {
+                PropfindXmlParser.Response.PropStat.Prop okprop = r.getOkProp();
+                if (okprop != null)
+                    return buildVersionToken(okprop.ETag, okprop.LastModified, okprop.ContentLength);
+            }
+            return null;
+        } finally {
+            response.close();
+        }
+    }
+
+    private String getVersionFromHead(ConnectionInfo ci) throws Exception {
+        Request request = new Request.Builder()
+                .url(new URL(ci.URL))
+                .head()
+                .build();
+
+        Response response = getClient(ci).newCall(request).execute();
+        try {
+            checkStatus(response);
+            return buildVersionToken(response.header("ETag"), response.header("Last-Modified"), response.header("Content-Length"));
+        } finally {
+            response.close();
+        }
+    }
+
+    private static String buildVersionToken(String etag, String lastModified, String contentLength) {
+        if ((etag != null) && !etag.isEmpty())
+            return etag;
+        if ((lastModified == null) || lastModified.isEmpty())
+            return null;
+        if ((contentLength == null) || contentLength.isEmpty())
+            return lastModified;
+        return lastModified + "/" + contentLength;
+    }
+
+    private static boolean isETag(String version) {
+        return (version != null) && (version.startsWith("\"") || version.startsWith("W/\""));
+    }
+
+    private static boolean isStrongETag(String version) {
+        return (version != null) && version.startsWith("\"");
     }
 
 
     @Override
     public InputStream openFileForRead(String path) throws Exception {
+        return openFileForReadIfChanged(path, null);
+    }
+
+    /**
+     * Like openFileForRead, but if knownVersion is an ETag returned by getCurrentFileVersionFast,
+     * the GET is sent with If-None-Match. Returns null if the server reports the file as unchanged,
+     * in which case nothing is downloaded.
+     */
+    public InputStream openFileForReadIfChanged(String path, String knownVersion) throws Exception {
         try {
             ConnectionInfo ci = splitStringToConnectionInfo(path);
 
-            Request request = new Request.Builder()
+            Request.Builder requestBuilder = new Request.Builder()
                     .url(new URL(ci.URL))
-                    .method("GET", null)
-                    .build();
+                    .method("GET", null);
+            if (isETag(knownVersion))
+                requestBuilder.header("If-None-Match", knownVersion);
 
-            Response response = getClient(ci).newCall(request).execute();
+            Response response = getClient(ci).newCall(requestBuilder.build()).execute();
+            if (response.code() == 304) {
+                response.close();
+                return null;
+            }
             checkStatus(response);
             return response.body().byteStream();
         } catch (Exception e) {
@@ -165,13 +260,84 @@ public class WebDavStorage extends JavaFileStorageBase {
     //client to be reused (connection pool/thread pool). We're building a custom client for each ConnectionInfo in getClient for actual usage
     final OkHttpClient baseClient = new OkHttpClient();
 
+    /**
+     * A client built for one host, user and TLS policy. Keeps the digest auth cache and the
+     * SSLContext (and with it the TLS session cache) alive across requests.
+     */
+    private static class CachedClient
+    {
+        final OkHttpClient client;
+        final String password;
+        volatile boolean authenticated;
+
+        CachedClient(OkHttpClient client, String password)
+        {
+            this.client = client;
+            this.password = password;
+        }
+    }
+
+    private final Map<String, CachedClient> clientCache = new ConcurrentHashMap<>();
+
+    /**
+     * Drops all cached clients, e.g. after the certificate validation settings changed.
+     */
+    public void clearClientCache()
+    {
+        clientCache.clear();
+    }
+
     private OkHttpClient getClient(ConnectionInfo ci) throws NoSuchAlgorithmException, KeyManagementException, KeyStoreException, IOException {
+        return getCachedClient(ci).client;
+    }
+
+    private CachedClient getCachedClient(ConnectionInfo ci) throws NoSuchAlgorithmException, KeyManagementException, KeyStoreException, IOException {
 
         if (ci.URL.startsWith("http://") && !PreferenceManager.getDefaultSharedPreferences(appContext).getBoolean("permit_cleartext_traffic", false))
         {
             throw new IOException("Cleartext HTTP is disabled by user preference. Go to app settings/File handling if you really want to use HTTP.");
         }
 
+        boolean useCertificateErrorHandler = (mCertificateErrorHandler != null) && (!mCertificateErrorHandler.alwaysFailOnValidationError());
+        URL url = new URL(ci.URL);
+        String key = url.getProtocol() + "://" + url.getHost() + ":" + url.getPort()
+                + "|" + ci.username + "|" + (useCertificateErrorHandler ? "handler" : "strict");
+
+        CachedClient cached = clientCache.get(key);
+        if ((cached != null) && Objects.equals(cached.password, ci.password))
+            return cached;
+
+        cached = new CachedClient(buildClient(ci, useCertificateErrorHandler), ci.password);
+        clientCache.put(key, cached);
+        return cached;
+    }
+
+    /**
+     * Sends a cheap OPTIONS request once per client so the authenticator has answered the
+     * server's challenge before a request body that can only be sent once.
+     *
+     * @return false if the server still asks for authentication
+     */
+    private boolean ensureAuthenticated(ConnectionInfo ci) throws Exception {
+        CachedClient cached = getCachedClient(ci);
+        if (cached.authenticated)
+            return true;
+        Request request = new Request.Builder()
+                .url(new URL(ci.URL))
+                .method("OPTIONS", null)
+                .build();
+        Response response = cached.client.newCall(request).execute();
+        try {
+            if (isAuthenticationChallenge(response))
+                return false;
+        } finally {
+            response.close();
+        }
+        cached.authenticated = true;
+        return true;
+    }
+
+    private OkHttpClient buildClient(ConnectionInfo ci, boolean useCertificateErrorHandler) throws NoSuchAlgorithmException, KeyManagementException, KeyStoreException {
 
         OkHttpClient.Builder builder = baseClient.newBuilder();
         final Map<String, CachingAuthenticator> authCache = new ConcurrentHashMap<>();
@@ -188,7 +354,7 @@ public class WebDavStorage extends JavaFileStorageBase {
 
         builder = builder.authenticator(new CachingAuthenticatorDecorator(authenticator, authCache))
                 .addInterceptor(new AuthenticationCacheInterceptor(authCache));
-        if ((mCertificateErrorHandler != null) && (!mCertificateErrorHandler.alwaysFailOnValidationError())) {
+        if (useCertificateErrorHandler) {
 
 
             TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(
@@ -386,6 +552,47 @@ public class WebDavStorage extends JavaFileStorageBase {
     @Override
     public void uploadFile(String path, byte[] data, boolean writeTransactional)
             throws Exception {
+        uploadFileIfUnchanged(path, data, writeTransactional, null);
+    }
+
+    @Override
+    public void uploadFile(String path, InputStream data, long length, boolean writeTransactional)
+            throws Exception {
+        File spool;
+        RequestBody requestBody;
+        if ((chunkSize <= 0) && (length < 0)) {
+            // chunked transfer encoding is opt-in because some servers store empty files for it.
+            // Spool the data to send it with a Content-Length.
+            spool = spoolToTempFile(data, appContext.getCacheDir());
+            requestBody = createRequestBody(spool);
+        } else {
+            spool = File.createTempFile("upload", ".tmp", appContext.getCacheDir());
+            requestBody = new StreamingRequestBody(data, length, spool);
+        }
+        try {
+            uploadFile(path, requestBody, writeTransactional, null);
+        } finally {
+            if (requestBody instanceof StreamingRequestBody)
+                ((StreamingRequestBody) requestBody).closeSpool();
+            spool.delete();
+        }
+    }
+
+    /**
+     * Uploads the file only if it still has expectedVersion on the server (optimistic locking).
+     * For a direct upload with a strong ETag this is a single PUT with If-Match. Otherwise the
+     * version is compared right before the upload is put in place, which leaves a small window
+     * for concurrent writers. Pass null as expectedVersion to upload unconditionally.
+     *
+     * @throws FileVersionConflictException if the file was modified on the server
+     */
+    public void uploadFileIfUnchanged(String path, byte[] data, boolean writeTransactional, String expectedVersion)
+            throws Exception {
+        uploadFile(path, createRequestBody(data), writeTransactional, expectedVersion);
+    }
+
+    private void uploadFile(String path, RequestBody requestBody, boolean writeTransactional, String expectedVersion)
+            throws Exception {
 
         if (writeTransactional)
         {
@@ -405,60 +612,194 @@ public class WebDavStorage extends JavaFileStorageBase {
                 // No extension: append temp suffix at the end
                 tempPath = path + tempSuffix;
             }
-            uploadFile(tempPath, data, false);
+            uploadFile(tempPath, requestBody, false, null);
+            if (expectedVersion != null)
+            {
+                try {
+                    checkVersionUnchanged(path, expectedVersion);
+                } catch (FileVersionConflictException e) {
+                    try {
+                        delete(tempPath);
+                    } catch (Exception deleteException) {
+                        Log.d("WebDavStorage", "Failed to delete temporary file: " + deleteException.getMessage());
+                    }
+                    throw e;
+                }
+            }
             renameOrMoveWebDavResource(tempPath, path, true);
             return;
         }
 
+        if ((expectedVersion != null) && !isStrongETag(expectedVersion))
+            checkVersionUnchanged(path, expectedVersion);
 
         try {
             ConnectionInfo ci = splitStringToConnectionInfo(path);
 
+            // a streamed body can't be sent a second time after an authentication challenge
+            if ((requestBody instanceof StreamingRequestBody) && !ensureAuthenticated(ci))
+                requestBody = ((StreamingRequestBody) requestBody).toReplayableBody();
 
-            RequestBody requestBody;
-            if (chunkSize > 0)
-            {
-                // use chunked upload
-                requestBody = new RequestBody() {
-                    @Override
-                    public MediaType contentType() {
-                        return MediaType.parse("application/binary");
-                    }
+            String ifMatch = isStrongETag(expectedVersion) ? expectedVersion : null;
+            Response response = put(ci, requestBody, ifMatch);
+            if (isAuthenticationChallenge(response) && (requestBody instanceof StreamingRequestBody)) {
+                response.close();
+                getCachedClient(ci).authenticated = false;
+                response = put(ci, ((StreamingRequestBody) requestBody).toReplayableBody(), ifMatch);
+            }
+            try {
+                if (response.code() == 412)
+                    throw new FileVersionConflictException(path);
+                checkStatus(response);
+            } finally {
+                response.close();
+            }
+        } catch (Exception e) {
+            throw convertException(e);
+        }
+
+    }
+
+    private Response put(ConnectionInfo ci, RequestBody requestBody, String ifMatch) throws Exception {
+        Request.Builder requestBuilder = new Request.Builder()
+                .url(new URL(ci.URL))
+                .put(requestBody);
+        if (ifMatch != null)
+            requestBuilder.header("If-Match", ifMatch);
+        return getClient(ci).newCall(requestBuilder.build()).execute();
+    }
+
+    private void checkVersionUnchanged(String path, String expectedVersion) throws FileVersionConflictException {
+        if (!expectedVersion.equals(getCurrentFileVersionFast(path)))
+            throw new FileVersionConflictException(path);
+    }
+
+    private static boolean isAuthenticationChallenge(Response response) {
+        return (response.code() == 401) || (response.code() == 407);
+    }
+
+    private RequestBody createRequestBody(byte[] data) {
+        if (chunkSize > 0)
+        {
+            // use chunked upload
+            return new RequestBody() {
+                @Override
+                public MediaType contentType() {
+                    return MediaType.parse("application/binary");
+                }
 
-                    @Override
-                    public void writeTo(BufferedSink sink) throws IOException {
-                        try (InputStream in = new ByteArrayInputStream(data)) {
-                            byte[] buffer = new byte[chunkSize];
-                            int read;
-                            while ((read = in.read(buffer)) != -1) {
-                                sink.write(buffer, 0, read);
-                                sink.flush();
-                            }
+                @Override
+                public void writeTo(BufferedSink sink) throws IOException {
+                    try (InputStream in = new ByteArrayInputStream(data)) {
+                        byte[] buffer = new byte[chunkSize];
+                        int read;
+                        while ((read = in.read(buffer)) != -1) {
+                            sink.write(buffer, 0, read);
+                            sink.flush();
                         }
                     }
+                }
+
+                @Override
+                public long contentLength() {
+                    return -1; // use chunked upload
+                }
+            };
+        }
+        return RequestBody.create(data, MediaType.parse("application/binary"));
+    }
 
-                    @Override
-                    public long contentLength() {
-                        return -1; // use chunked upload
+    private RequestBody createRequestBody(File file) {
+        if (chunkSize > 0)
+        {
+            // use chunked upload
+            return new RequestBody() {
+                @Override
+                public MediaType contentType() {
+                    return MediaType.parse("application/binary");
+                }
+
+                @Override
+                public void writeTo(BufferedSink sink) throws IOException {
+                    try (InputStream in = new FileInputStream(file)) {
+                        byte[] buffer = new byte[chunkSize];
+                        int read;
+                        while ((read = in.read(buffer)) != -1) {
+                            sink.write(buffer, 0, read);
+                            sink.flush();
+                        }
                     }
-                };
-            }
-            else
-            {
-                requestBody = RequestBody.create(data, MediaType.parse("application/binary"));
+                }
+
+                @Override
+                public long contentLength() {
+                    return -1; // use chunked upload
+                }
+            };
+        }
+        return RequestBody.create(file, MediaType.parse("application/binary"));
+    }
+
+    /**
+     * Sends the data while it is read. Everything read is also written to a spool file, so the
+     * upload can be repeated with a replayable body if the server answers with an
+     * authentication challenge.
+     */
+    private class StreamingRequestBody extends RequestBody {
+        private final InputStream data;
+        private final long length;
+        private final File spool;
+        private OutputStream spoolOut;
+
+        StreamingRequestBody(InputStream data, long length, File spool) throws IOException {
+            this.data = data;
+            this.length = length;
+            this.spool = spool;
+            this.spoolOut = new FileOutputStream(spool);
+        }
+
+        @Override
+        public MediaType contentType() {
+            return MediaType.parse("application/binary");
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            byte[] buffer = new byte[chunkSize > 0 ? chunkSize : 8192];
+            int read;
+            while ((read = data.read(buffer)) != -1) {
+                spoolOut.write(buffer, 0, read);
+                sink.write(buffer, 0, read);
+                if (chunkSize > 0)
+                    sink.flush();
             }
+        }
 
-            Request request = new Request.Builder()
-                    .url(new URL(ci.URL))
-                    .put(requestBody)
-                    .build();
+        @Override
+        public long contentLength() {
+            return chunkSize > 0 ? -1 : length;
+        }
 
-            Response response = getClient(ci).newCall(request).execute();
-            checkStatus(response);
-        } catch (Exception e) {
-            throw convertException(e);
+        @Override
+        public boolean isOneShot() {
+            return true;
+        }
+
+        /**
+         * Reads the rest of the data into the spool file and returns a body which sends it.
+         */
+        RequestBody toReplayableBody() throws IOException {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = data.read(buffer)) != -1)
+                spoolOut.write(buffer, 0, read);
+            closeSpool();
+            return createRequestBody(spool);
         }
 
+        void closeSpool() throws IOException {
+            spoolOut.close();
+        }
     }
 
     @Override
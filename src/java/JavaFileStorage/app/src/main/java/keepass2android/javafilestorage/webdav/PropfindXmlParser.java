@@ -74,6 +74,7 @@ public class PropfindXmlParser
                 public String DisplayName;
                 public String LastModified;
                 public String ContentLength;
+                public String ETag;
 
                 public boolean IsCollection;
             }
@@ -219,6 +220,8 @@ public class PropfindXmlParser
                 prop.ContentLength = readText(parser);
             } else if (name.equals("getlastmodified")) {
                 prop.LastModified = readText(parser);
+            } else if (name.equals("getetag")) {
+                prop.ETag = readText(parser);
             } else if (name.equals("displayname")) {
                 prop.DisplayName = readText(parser);
             } else if (name.equals("resourcetype") && namespace.equals(ns)) {
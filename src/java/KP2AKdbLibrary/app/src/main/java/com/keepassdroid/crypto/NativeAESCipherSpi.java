@@ -22,6 +22,7 @@ package com.keepassdroid.crypto;
 import java.lang.ref.PhantomReference;
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
 import java.security.AlgorithmParameters;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
@@ -30,7 +31,9 @@ import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.AlgorithmParameterSpec;
 import java.security.spec.InvalidParameterSpecException;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -45,32 +48,65 @@ import android.util.Log;
 public class NativeAESCipherSpi extends CipherSpi {
 	
 	private static boolean mIsStaticInit = false;
-	private static HashMap<PhantomReference<NativeAESCipherSpi>, Long> mCleanup = new HashMap<PhantomReference<NativeAESCipherSpi>, Long>();
+	private static ConcurrentHashMap<Reference<NativeAESCipherSpi>, Long> mCleanup = new ConcurrentHashMap<Reference<NativeAESCipherSpi>, Long>();
 	private static ReferenceQueue<NativeAESCipherSpi> mQueue = new ReferenceQueue<NativeAESCipherSpi>();
 	
-	private final int AES_BLOCK_SIZE = 16;
+	// Native contexts kept around for reuse once a cipher is done with them
+	private static final int MAX_POOLED_CONTEXTS = 4;
+	private static final ArrayDeque<Long> mPool = new ArrayDeque<Long>();
+	
+	private static final int AES_BLOCK_SIZE = 16;
+	private static final int CACHE_SIZE = 32;
+	private static final byte[] EMPTY = new byte[0];
 	private byte[] mIV;
+	private Key mKey;
 	
 	private boolean mIsInited = false;
 	private boolean mEncrypting = false;
 	private long mCtxPtr;
+	private final PhantomReference<NativeAESCipherSpi> mCleanupRef = new PhantomReference<NativeAESCipherSpi>(this, mQueue);
 	
 	private boolean mPadding  = false;
 	
-	private static void staticInit() {
+	private static synchronized void staticInit() {
+		if ( mIsStaticInit ) {
+			return;
+		}
 		mIsStaticInit = true;
 		
 		// Start the cipher context cleanup thread to run forever
-		(new Thread(new Cleanup())).start();
+		Thread cleanup = new Thread(new Cleanup(), "NativeAESCleanup");
+		cleanup.setDaemon(true);
+		cleanup.start();
+	}
+	
+	private static void addToCleanupQueue(Reference<NativeAESCipherSpi> ref, long ptr) {
+		mCleanup.put(ref, ptr);
+	}
+	
+	/** Take a native context from the pool, or 0 if the pool is empty */
+	private static long takePooledContext() {
+		synchronized (mPool) {
+			Long ptr = mPool.poll();
+			return ptr == null ? 0 : ptr;
+		}
 	}
 	
-	private static void addToCleanupQueue(NativeAESCipherSpi ref, long ptr) {
-		Log.d("KeepassDroid", "queued cipher context: " + ptr);
-		mCleanup.put(new PhantomReference<NativeAESCipherSpi>(ref, mQueue), ptr);
+	/** Wipe a native context and keep it for reuse, or free it if the pool is full */
+	private static void releaseContext(long ptr) {
+		nWipe(ptr);
+		synchronized (mPool) {
+			if ( mPool.size() < MAX_POOLED_CONTEXTS ) {
+				mPool.push(ptr);
+				return;
+			}
+		}
+		nCleanup(ptr);
 	}
 	
 	/** Work with the garbage collector to clean up openssl memory when the cipher
-	 *  context is garbage collected.
+	 *  context is garbage collected. Contexts that were released explicitly are no
+	 *  longer tracked here.
 	 * @author bpellin
 	 *
 	 */
@@ -81,9 +117,11 @@ public class NativeAESCipherSpi extends CipherSpi {
 				try {
 					Reference<? extends NativeAESCipherSpi> ref = mQueue.remove();
 					
-					long ctx = mCleanup.remove(ref);
-					nCleanup(ctx);
-					Log.d("KeePassDroid", "Cleaned up cipher context: " + ctx);
+					Long ctx = mCleanup.remove(ref);
+					if ( ctx != null ) {
+						releaseContext(ctx);
+						Log.d("KeePassDroid", "Cleaned up cipher context: " + ctx);
+					}
 					
 				} catch (InterruptedException e) {
 					// Do nothing, but resume looping if mQueue.remove is interrupted
@@ -94,6 +132,8 @@ public class NativeAESCipherSpi extends CipherSpi {
 	}
 	
 	private static native void nCleanup(long ctxPtr);
+	
+	private static native void nWipe(long ctxPtr);
 
 	public NativeAESCipherSpi() {
 		if ( ! mIsStaticInit ) {
@@ -101,30 +141,61 @@ public class NativeAESCipherSpi extends CipherSpi {
 		}
 	}
 	
+	/**
+	 * Make sure a native context keyed with the current key and IV exists. After
+	 * doFinal the context has been handed back, so this also restores the cipher to
+	 * its initialized state as required by {@link Cipher#doFinal()}.
+	 */
+	private void ensureContext() {
+		if ( mCtxPtr != 0 ) {
+			return;
+		}
+		
+		byte[] key = mKey.getEncoded();
+		long ptr = takePooledContext();
+		if ( ptr != 0 ) {
+			try {
+				nReset(ptr, mEncrypting, key, mIV);
+			} catch (RuntimeException e) {
+				releaseContext(ptr);
+				throw e;
+			}
+		} else {
+			ptr = nInit(mEncrypting, key, mIV);
+		}
+		Arrays.fill(key, (byte) 0);
+		
+		mCtxPtr = ptr;
+		addToCleanupQueue(mCleanupRef, mCtxPtr);
+	}
+	
+	/** Hand the native context back right away instead of waiting for the garbage collector */
+	private void releaseContext() {
+		if ( mCtxPtr == 0 ) {
+			return;
+		}
+		
+		mCleanup.remove(mCleanupRef);
+		long ptr = mCtxPtr;
+		mCtxPtr = 0;
+		releaseContext(ptr);
+	}
+	
 	@Override
 	protected byte[] engineDoFinal(byte[] input, int inputOffset, int inputLen)
 			throws IllegalBlockSizeException, BadPaddingException {
-		int maxSize = engineGetOutputSize(inputLen);
-		byte[] output = new byte[maxSize];
-		
-		int finalSize;
+		ensureContext();
 		
 		try {
-			finalSize = doFinal(input, inputOffset, inputLen, output, 0);
-		} catch (ShortBufferException e) {
-			// This shouldn't be possible rethrow as RuntimeException
-			throw new RuntimeException("Short buffer exception shouldn't be possible from here.");
-		}
-		
-		if ( maxSize == finalSize ) {
-			return output;
-		} else {
-			// TODO: Special doFinal to avoid this copy
-			byte[] exact = new byte[finalSize];
-			System.arraycopy(output, 0, exact, 0, finalSize);
-			return exact;
+			// The native side sizes the result, so there is no second copy to trim the padding
+			return nDoFinal(mCtxPtr, mPadding, input, inputOffset, inputLen);
+		} finally {
+			releaseContext();
 		}
 	}
+	
+	private native byte[] nDoFinal(long ctxPtr, boolean usePadding, byte[] input, int inputOffset, int inputLen)
+			throws IllegalBlockSizeException, BadPaddingException;
 
 	@Override
 	protected int engineDoFinal(byte[] input, int inputOffset, int inputLen,
@@ -143,25 +214,100 @@ public class NativeAESCipherSpi extends CipherSpi {
 	private int doFinal(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) 
 			throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
 		
-		int outputSize = engineGetOutputSize(inputLen);
+		ensureContext();
 		
-		int updateAmt;
-		if (input != null && inputLen > 0) {
-			updateAmt = nUpdate(mCtxPtr, input, inputOffset, inputLen, output, outputOffset, outputSize);
-		} else {
-			updateAmt = 0;
+		int outputSize = output.length - outputOffset;
+		if ( finalOutputSize(inputLen) > outputSize ) {
+			// Keep the context so the caller can retry with a larger buffer
+			return -1;
 		}
 		
-		int finalAmt = nFinal(mCtxPtr, mPadding, output, outputOffset + updateAmt, outputSize - updateAmt); 
+		try {
+			int updateAmt;
+			if (input != null && inputLen > 0) {
+				updateAmt = nUpdate(mCtxPtr, input, inputOffset, inputLen, output, outputOffset, outputSize);
+			} else {
+				updateAmt = 0;
+			}
+			
+			int finalAmt = nFinal(mCtxPtr, mPadding, output, outputOffset + updateAmt, outputSize - updateAmt); 
+			
+			int out = updateAmt + finalAmt;
+			
+			
+			return out;
+		} finally {
+			// The context is finalized either way, give it back for reuse
+			releaseContext();
+		}
+	}
+	
+	private native int nFinal(long ctxPtr, boolean usePadding, byte[] output, int outputOffest, int outputSize)
+			throws ShortBufferException, IllegalBlockSizeException, BadPaddingException;
+	
+	@Override
+	protected int engineDoFinal(ByteBuffer input, ByteBuffer output)
+			throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
 		
-		int out = updateAmt + finalAmt;
+		if ( ! isDirectPair(input, output) ) {
+			return super.engineDoFinal(input, output);
+		}
 		
+		ensureContext();
 		
-		return out;
+		int inputLen = input.remaining();
+		int outputSize = output.remaining();
+		if ( finalOutputSize(inputLen) > outputSize ) {
+			throw new ShortBufferException("Insufficient buffer.");
+		}
+		
+		try {
+			int updateAmt;
+			if ( inputLen > 0 ) {
+				updateAmt = nUpdateDirect(mCtxPtr, input, input.position(), inputLen, output, output.position(), outputSize);
+			} else {
+				updateAmt = 0;
+			}
+			
+			int finalAmt = nFinalDirect(mCtxPtr, mPadding, output, output.position() + updateAmt, outputSize - updateAmt);
+			
+			input.position(input.limit());
+			output.position(output.position() + updateAmt + finalAmt);
+			
+			return updateAmt + finalAmt;
+		} finally {
+			releaseContext();
+		}
 	}
 	
-	private native int nFinal(long ctxPtr, boolean usePadding, byte[] output, int outputOffest, int outputSize)
+	private native int nFinalDirect(long ctxPtr, boolean usePadding, ByteBuffer output, int outputOffset, int outputSize)
 			throws ShortBufferException, IllegalBlockSizeException, BadPaddingException;
+	
+	/** Both buffers live outside the java heap, so the native code can work on them in place */
+	private static boolean isDirectPair(ByteBuffer input, ByteBuffer output) {
+		return input.isDirect() && output.isDirect() && ! output.isReadOnly();
+	}
+	
+	/** Number of bytes update will produce for inputLen more bytes of input */
+	private int updateOutputSize(int inputLen) {
+		int cryptLen = inputLen + nGetCacheSize(mCtxPtr);
+		if ( cryptLen < CACHE_SIZE ) {
+			return 0;
+		}
+		
+		// The native side always holds back the trailing partial block plus one full block
+		return cryptLen - ((cryptLen & (AES_BLOCK_SIZE - 1)) + AES_BLOCK_SIZE);
+	}
+	
+	/** Upper bound of what doFinal will produce, exact unless decrypting with padding */
+	private int finalOutputSize(int inputLen) {
+		int cryptLen = inputLen + nGetCacheSize(mCtxPtr);
+		if ( mPadding && mEncrypting ) {
+			return (cryptLen & ~(AES_BLOCK_SIZE - 1)) + AES_BLOCK_SIZE;
+		}
+		
+		return cryptLen;
+	}
 
 	@Override
 	protected int engineGetBlockSize() {
@@ -175,7 +321,8 @@ public class NativeAESCipherSpi extends CipherSpi {
 
 	@Override
 	protected int engineGetOutputSize(int inputLen) {
-		return inputLen + nGetCacheSize(mCtxPtr) + AES_BLOCK_SIZE;
+		int cacheSize = mCtxPtr == 0 ? 0 : nGetCacheSize(mCtxPtr);
+		return inputLen + cacheSize + AES_BLOCK_SIZE;
 	}
 	
 	private native int nGetCacheSize(long ctxPtr);
@@ -228,22 +375,23 @@ public class NativeAESCipherSpi extends CipherSpi {
 
 	private void init(int opmode, Key key, IvParameterSpec params) {
 		if ( mIsInited ) {
-			// Do not allow multiple inits
-			assert(true);
-			throw new RuntimeException("Don't allow multiple inits");
+			// Re-init reuses this cipher: reset the native context for the new key
+			releaseContext();
 		} else {
 			NativeLib.init();
 			mIsInited = true;
 		}
 		
 		mIV = params.getIV();
+		mKey = key;
 		mEncrypting = opmode == Cipher.ENCRYPT_MODE;
-		mCtxPtr = nInit(mEncrypting, key.getEncoded(), mIV);
-		addToCleanupQueue(this, mCtxPtr);
+		ensureContext();
 	}
 	
 	private native long nInit(boolean encrypting, byte[] key, byte[] iv);
 	
+	private native int nReset(long ctxPtr, boolean encrypting, byte[] key, byte[] iv);
+	
 	@Override
 	protected void engineSetMode(String mode) throws NoSuchAlgorithmException {
 		if ( ! mode.equals("CBC") ) {
@@ -273,20 +421,14 @@ public class NativeAESCipherSpi extends CipherSpi {
 	
 	@Override
 	protected byte[] engineUpdate(byte[] input, int inputOffset, int inputLen) {
-		int maxSize = engineGetOutputSize(inputLen);
-		byte output[] = new byte[maxSize];
+		ensureContext();
 		
-		int updateSize = update(input, inputOffset, inputLen, output, 0);
-		
-		if ( updateSize == maxSize ) {
-			return output;
-		} else {
-			// TODO: We could optimize update for this case to avoid this extra copy
-			byte[] exact = new byte[updateSize];
-			System.arraycopy(output, 0, exact, 0, updateSize);
-			return exact;
-		}
+		// The output size is known up front, so the array never needs trimming
+		int size = updateOutputSize(inputLen);
+		byte output[] = size == 0 ? EMPTY : new byte[size];
+		update(input, inputOffset, inputLen, output, 0);
 		
+		return output;
 	}
 
 	@Override
@@ -304,7 +446,16 @@ public class NativeAESCipherSpi extends CipherSpi {
 	}
 	
 	int update(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) {
-		int outputSize = engineGetOutputSize(inputLen);
+		ensureContext();
+		
+		if ( inputLen == 0 ) {
+			return 0;
+		}
+		
+		int outputSize = output.length - outputOffset;
+		if ( updateOutputSize(inputLen) > outputSize ) {
+			return -1;
+		}
 		
 		int out = nUpdate(mCtxPtr, input, inputOffset, inputLen, output, outputOffset, outputSize);
 		
@@ -316,4 +467,32 @@ public class NativeAESCipherSpi extends CipherSpi {
 	
 	private native int nUpdate(long ctxPtr, byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset, int outputSize);
 	
+	@Override
+	protected int engineUpdate(ByteBuffer input, ByteBuffer output) throws ShortBufferException {
+		if ( ! isDirectPair(input, output) ) {
+			return super.engineUpdate(input, output);
+		}
+		
+		ensureContext();
+		
+		int inputLen = input.remaining();
+		if ( inputLen == 0 ) {
+			return 0;
+		}
+		
+		int outputSize = output.remaining();
+		if ( updateOutputSize(inputLen) > outputSize ) {
+			throw new ShortBufferException("Insufficient buffer.");
+		}
+		
+		int out = nUpdateDirect(mCtxPtr, input, input.position(), inputLen, output, output.position(), outputSize);
+		
+		input.position(input.limit());
+		output.position(output.position() + out);
+		
+		return out;
+	}
+	
+	private native int nUpdateDirect(long ctxPtr, ByteBuffer input, int inputOffset, int inputLen, ByteBuffer output, int outputOffset, int outputSize);
+	
 }
\ No newline at end of file
@@ -23,4 +23,12 @@ import java.io.IOException;
 
 public abstract class FinalKey {
 	public abstract byte[] transformMasterKey(byte[] seed, byte[] key, int rounds) throws IOException;
+
+	/**
+	 * Transform the key while reporting progress to listener. Implementations that
+	 * cannot report progress or be cancelled simply ignore the listener.
+	 */
+	public byte[] transformMasterKey(byte[] seed, byte[] key, int rounds, KeyTransformListener listener) throws IOException {
+		return transformMasterKey(seed, key, rounds);
+	}
 }
@@ -31,8 +31,8 @@ public class FinalKeyFactory {
 		if ( !CipherFactory.deviceBlacklisted() && !androidOverride && NativeFinalKey.availble() ) {
 			return new NativeFinalKey();
 		} else {
-			// Fall back on the android crypto implementation
-			return new AndroidFinalKey();
+			// Fall back on the android crypto implementation, spread over the available cores
+			return new ParallelFinalKey();
 		}
 	}
 }
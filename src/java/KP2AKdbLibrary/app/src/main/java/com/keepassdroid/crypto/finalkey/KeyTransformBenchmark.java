@@ -0,0 +1,84 @@
+/*
+ * This file is part of Keepass2Android, Copyright 2025 Philipp Crocoll.
+ *
+ *   Keepass2Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Keepass2Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Keepass2Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.keepassdroid.crypto.finalkey;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+
+/**
+ * Measures how many key transformation rounds a {@link FinalKey} manages per second
+ * on this device, so the number of rounds can be chosen for a target unlock time.
+ * Works with any backend, e.g. the one returned by {@link FinalKeyFactory#createFinalKey()}.
+ */
+public class KeyTransformBenchmark {
+
+	private static final int MIN_ROUNDS = 1000;
+	private static final long DEFAULT_SAMPLE_MILLIS = 250;
+
+	/**
+	 * @param key backend to measure
+	 * @param sampleMillis minimum time to spend in a single measurement. Longer
+	 *   samples are more accurate, shorter ones return sooner.
+	 * @return transformation rounds per second
+	 */
+	public static long measureRoundsPerSecond(FinalKey key, long sampleMillis) throws IOException {
+		SecureRandom random = new SecureRandom();
+		byte[] seed = new byte[32];
+		byte[] masterKey = new byte[32];
+		random.nextBytes(seed);
+		random.nextBytes(masterKey);
+
+		// Warm up once so class loading and JIT do not count against the backend
+		key.transformMasterKey(seed, masterKey, MIN_ROUNDS);
+
+		long sampleNanos = Math.max(1, sampleMillis) * 1000000L;
+		long rounds = MIN_ROUNDS;
+		while (true) {
+			long start = System.nanoTime();
+			key.transformMasterKey(seed, masterKey, (int) rounds);
+			long elapsed = Math.max(1, System.nanoTime() - start);
+
+			if (elapsed >= sampleNanos || rounds == Integer.MAX_VALUE) {
+				return rounds * 1000000000L / elapsed;
+			}
+
+			// Scale up towards the sample time, at most tenfold per step
+			long next = rounds * Math.min(10, sampleNanos / elapsed + 1);
+			rounds = Math.min(Integer.MAX_VALUE, next);
+		}
+	}
+
+	public static long measureRoundsPerSecond(FinalKey key) throws IOException {
+		return measureRoundsPerSecond(key, DEFAULT_SAMPLE_MILLIS);
+	}
+
+	/**
+	 * @return the number of rounds that takes about targetMillis to transform with key
+	 */
+	public static int roundsForDuration(FinalKey key, long targetMillis) throws IOException {
+		return roundsForDuration(measureRoundsPerSecond(key), targetMillis);
+	}
+
+	/**
+	 * @return the number of rounds that takes about targetMillis at the given speed
+	 */
+	public static int roundsForDuration(long roundsPerSecond, long targetMillis) {
+		long rounds = roundsPerSecond * targetMillis / 1000;
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE, rounds));
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * This file is part of Keepass2Android, Copyright 2025 Philipp Crocoll.
+ *
+ *   Keepass2Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Keepass2Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Keepass2Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.keepassdroid.crypto.finalkey;
+
+/**
+ * Receives progress updates from a running key transformation and can abort it.
+ */
+public interface KeyTransformListener {
+
+	/**
+	 * Called periodically while the key is being transformed.
+	 *
+	 * @param roundsDone number of rounds completed so far
+	 * @param roundsTotal total number of rounds
+	 */
+	void onProgress(int roundsDone, int roundsTotal);
+
+	/**
+	 * Polled periodically while the key is being transformed.
+	 *
+	 * @return true to abort the transformation with a {@link KeyTransformCancelledException}
+	 */
+	boolean isCancelled();
+}
@@ -0,0 +1,223 @@
+/*
+ * This file is part of Keepass2Android, Copyright 2025 Philipp Crocoll.
+ *
+ *   Keepass2Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Keepass2Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Keepass2Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.keepassdroid.crypto.finalkey;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Pure Java key transformation which, like the native implementation, transforms
+ * each 16 byte block of the key on its own thread when more than one core is
+ * available. Rounds alternate between two buffers, so no copy is made per round.
+ */
+public class ParallelFinalKey extends FinalKey {
+
+	private static final int AES_BLOCK_SIZE = 16;
+
+	// Progress and cancellation are checked every CHECK_INTERVAL rounds
+	private static final int CHECK_INTERVAL = 1 << 14;
+
+	@Override
+	public byte[] transformMasterKey(byte[] pKeySeed, byte[] pKey, int rounds) throws IOException {
+		return transformMasterKey(pKeySeed, pKey, rounds, null);
+	}
+
+	@Override
+	public byte[] transformMasterKey(byte[] pKeySeed, byte[] pKey, int rounds, KeyTransformListener listener) throws IOException {
+		if (pKey.length % AES_BLOCK_SIZE != 0) {
+			throw new IOException("Key length must be a multiple of " + AES_BLOCK_SIZE);
+		}
+
+		byte[] newKey = new byte[pKey.length];
+		System.arraycopy(pKey, 0, newKey, 0, pKey.length);
+
+		// Each block is independent in ECB mode. With a single core, transform the whole
+		// key per cipher call instead, which halves the number of calls.
+		int blocks = pKey.length / AES_BLOCK_SIZE;
+		int workerCount = Runtime.getRuntime().availableProcessors() > 1 ? blocks : Math.min(1, blocks);
+		final TransformState state = new TransformState();
+		Worker[] workers = new Worker[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			int length = pKey.length / workerCount;
+			workers[i] = new Worker(createCipher(pKeySeed), newKey, i * length, length, rounds, state);
+		}
+
+		// The first worker runs on the calling thread, which also reports progress
+		Thread[] threads = new Thread[workerCount];
+		for (int i = 1; i < workerCount; i++) {
+			threads[i] = new Thread(workers[i], "KeyTransform-" + i);
+			threads[i].start();
+		}
+
+		try {
+			if (workerCount > 0) {
+				workers[0].transform(listener);
+			}
+			for (int i = 1; i < workerCount; i++) {
+				threads[i].join();
+			}
+		} catch (InterruptedException e) {
+			state.cancelled = true;
+			Thread.currentThread().interrupt();
+		} finally {
+			// Make sure no worker outlives this call, even if the calling thread failed
+			state.cancelled |= state.failure != null || (workerCount > 0 && workers[0].failure != null);
+			for (int i = 1; i < workerCount; i++) {
+				joinUninterruptibly(threads[i]);
+			}
+		}
+
+		for (Worker worker : workers) {
+			if (worker.failure != null) {
+				Arrays.fill(newKey, (byte) 0);
+				throw worker.failure;
+			}
+		}
+		if (state.cancelled) {
+			Arrays.fill(newKey, (byte) 0);
+			throw new KeyTransformCancelledException();
+		}
+
+		// Hash the key
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-256 not implemented here: " + e.getMessage());
+		}
+
+		md.update(newKey);
+		Arrays.fill(newKey, (byte) 0);
+		return md.digest();
+	}
+
+	private static Cipher createCipher(byte[] pKeySeed) throws IOException {
+		Cipher cipher;
+		try {
+			cipher = Cipher.getInstance("AES/ECB/NoPadding");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("NoSuchAlgorithm: " + e.getMessage());
+		} catch (NoSuchPaddingException e) {
+			throw new IOException("NoSuchPadding: " + e.getMessage());
+		}
+
+		try {
+			cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(pKeySeed, "AES"));
+		} catch (InvalidKeyException e) {
+			throw new IOException("InvalidPasswordException: " + e.getMessage());
+		}
+		return cipher;
+	}
+
+	private static void joinUninterruptibly(Thread thread) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				thread.join();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static class TransformState {
+		volatile boolean cancelled;
+		volatile IOException failure;
+	}
+
+	/** Transforms a range of whole blocks of the key in place. */
+	private static class Worker implements Runnable {
+		private final Cipher mCipher;
+		private final byte[] mKey;
+		private final int mOffset;
+		private final int mLength;
+		private final int mRounds;
+		private final TransformState mState;
+		IOException failure;
+
+		Worker(Cipher cipher, byte[] key, int offset, int length, int rounds, TransformState state) {
+			mCipher = cipher;
+			mKey = key;
+			mOffset = offset;
+			mLength = length;
+			mRounds = rounds;
+			mState = state;
+		}
+
+		@Override
+		public void run() {
+			try {
+				transform(null);
+			} catch (IOException e) {
+				failure = e;
+				mState.failure = e;
+			}
+		}
+
+		void transform(KeyTransformListener listener) throws IOException {
+			byte[] src = new byte[mLength];
+			byte[] dest = new byte[mLength];
+			System.arraycopy(mKey, mOffset, src, 0, mLength);
+
+			try {
+				int done = 0;
+				while (done < mRounds) {
+					int end = Math.min(mRounds, done + CHECK_INTERVAL);
+					for (; done < end; done++) {
+						mCipher.update(src, 0, mLength, dest, 0);
+						byte[] t = src;
+						src = dest;
+						dest = t;
+					}
+
+					if (listener != null) {
+						listener.onProgress(done, mRounds);
+						if (listener.isCancelled()) {
+							mState.cancelled = true;
+						}
+					}
+					if (Thread.currentThread().isInterrupted()) {
+						mState.cancelled = true;
+					}
+					if (mState.cancelled || mState.failure != null) {
+						return;
+					}
+				}
+				System.arraycopy(src, 0, mKey, mOffset, mLength);
+			} catch (ShortBufferException e) {
+				failure = new IOException("Short buffer: " + e.getMessage());
+				throw failure;
+			} finally {
+				Arrays.fill(src, (byte) 0);
+				Arrays.fill(dest, (byte) 0);
+			}
+		}
+	}
+}
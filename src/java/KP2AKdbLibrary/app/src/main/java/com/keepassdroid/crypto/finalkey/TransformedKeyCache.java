@@ -0,0 +1,190 @@
+/*
+ * This file is part of Keepass2Android, Copyright 2025 Philipp Crocoll.
+ *
+ *   Keepass2Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Keepass2Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Keepass2Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.keepassdroid.crypto.finalkey;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Opt-in, in-memory cache of transformed master keys, so reopening a database with
+ * the same key, transform seed and number of rounds (e.g. a reload after a sync
+ * conflict) skips the key transformation.
+ * 
+ * Entries are looked up by a salted hash of (key, seed, rounds) and expire after a
+ * fixed time. Cached keys are zeroed when they expire, are evicted, or when
+ * {@link #clear()} is called on lock.
+ */
+public class TransformedKeyCache {
+
+	public static final long DEFAULT_TTL_MILLIS = 5 * 60 * 1000;
+	private static final int MAX_ENTRIES = 4;
+
+	private static boolean enabled = false;
+	private static long ttlMillis = DEFAULT_TTL_MILLIS;
+	private static final byte[] salt = new byte[32];
+	private static boolean saltInit = false;
+	private static Timer expiryTimer;
+
+	private static final LinkedHashMap<String, CachedKey> entries =
+			new LinkedHashMap<String, CachedKey>(MAX_ENTRIES * 2, 0.75f, true);
+
+	private static class CachedKey {
+		final byte[] transformedKey;
+		final long expires;
+
+		CachedKey(byte[] transformedKey, long expires) {
+			this.transformedKey = transformedKey;
+			this.expires = expires;
+		}
+
+		void wipe() {
+			Arrays.fill(transformedKey, (byte) 0);
+		}
+	}
+
+	/**
+	 * Turn the cache on or off. Turning it off clears all cached keys.
+	 * 
+	 * @param ttl how long a transformed key may be reused, in milliseconds
+	 */
+	public static synchronized void setEnabled(boolean enable, long ttl) {
+		enabled = enable;
+		ttlMillis = ttl;
+		if (!enable) {
+			clear();
+		}
+	}
+
+	public static synchronized boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return a copy of the cached transformed key, or null if there is none
+	 */
+	public static synchronized byte[] get(byte[] seed, byte[] key, int rounds) {
+		if (!enabled) {
+			return null;
+		}
+		purgeExpired();
+
+		CachedKey cached = entries.get(cacheKey(seed, key, rounds));
+		if (cached == null) {
+			return null;
+		}
+		return cached.transformedKey.clone();
+	}
+
+	public static synchronized void put(byte[] seed, byte[] key, int rounds, byte[] transformedKey) {
+		if (!enabled) {
+			return;
+		}
+		purgeExpired();
+
+		String id = cacheKey(seed, key, rounds);
+		CachedKey old = entries.remove(id);
+		if (old != null) {
+			old.wipe();
+		}
+		entries.put(id, new CachedKey(transformedKey.clone(), System.currentTimeMillis() + ttlMillis));
+
+		// Evict least recently used
+		while (entries.size() > MAX_ENTRIES) {
+			Iterator<CachedKey> it = entries.values().iterator();
+			it.next().wipe();
+			it.remove();
+		}
+
+		scheduleExpiry(ttlMillis);
+	}
+
+	/**
+	 * Zero and drop all cached keys. Call this when the app is locked.
+	 */
+	public static synchronized void clear() {
+		for (CachedKey cached : entries.values()) {
+			cached.wipe();
+		}
+		entries.clear();
+		if (expiryTimer != null) {
+			expiryTimer.cancel();
+			expiryTimer = null;
+		}
+	}
+
+	private static void purgeExpired() {
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<String, CachedKey>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+			CachedKey cached = it.next().getValue();
+			if (cached.expires <= now) {
+				cached.wipe();
+				it.remove();
+			}
+		}
+	}
+
+	// Expired keys are wiped by a timer, so they do not linger until the next lookup
+	private static void scheduleExpiry(long delay) {
+		if (expiryTimer == null) {
+			expiryTimer = new Timer("TransformedKeyCache", true);
+		}
+		expiryTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				synchronized (TransformedKeyCache.class) {
+					purgeExpired();
+				}
+			}
+		}, delay);
+	}
+
+	private static String cacheKey(byte[] seed, byte[] key, int rounds) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-256 not implemented here.");
+		}
+
+		// Salt per process, so the lookup key is useless outside of it
+		if (!saltInit) {
+			new SecureRandom().nextBytes(salt);
+			saltInit = true;
+		}
+		md.update(salt);
+		md.update(seed);
+		md.update(key);
+		md.update(new byte[] { (byte) (rounds >>> 24), (byte) (rounds >>> 16), (byte) (rounds >>> 8), (byte) rounds });
+
+		byte[] hash = md.digest();
+		StringBuilder sb = new StringBuilder(hash.length * 2);
+		for (byte b : hash) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+}
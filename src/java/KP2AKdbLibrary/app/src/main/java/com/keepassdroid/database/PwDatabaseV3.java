@@ -60,10 +60,14 @@ import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import com.keepassdroid.crypto.finalkey.FinalKey;
 import com.keepassdroid.crypto.finalkey.FinalKeyFactory;
+import com.keepassdroid.crypto.finalkey.TransformedKeyCache;
 import com.keepassdroid.database.exception.InvalidKeyFileException;
 import com.keepassdroid.database.exception.KeyFileEmptyException;
 import com.keepassdroid.stream.NullOutputStream;
@@ -95,6 +99,15 @@ public class PwDatabaseV3 {
 	public PwEncryptionAlgorithm algorithm;
 	public int numKeyEncRounds;
 
+	// Index over groups and entries, built in one pass by buildIndex()
+	private Map<PwGroupV3, ArrayList<PwGroupV3>> groupChildren;
+	private Map<Integer, PwGroupV3> groupsById;
+	private Map<Integer, ArrayList<PwEntryV3>> entriesByGroupId;
+	private List<PwGroupV3> indexedGroups;
+	private List<PwEntryV3> indexedEntries;
+	private int indexedGroupCount;
+	private int indexedEntryCount;
+
 	
 	
 	public void makeFinalKey(byte[] masterSeed, byte[] masterSeed2, int numRounds) throws IOException {
@@ -112,6 +125,7 @@ public class PwDatabaseV3 {
 		byte[] transformedMasterKey = transformMasterKey(masterSeed2, masterKey, numRounds); 
 		dos.write(masterSeed);
 		dos.write(transformedMasterKey);
+		Arrays.fill(transformedMasterKey, (byte) 0);
 
 		finalKey = md.digest();
 	}
@@ -122,9 +136,16 @@ public class PwDatabaseV3 {
 	 */
 	private static byte[] transformMasterKey( byte[] pKeySeed, byte[] pKey, int rounds ) throws IOException
 	{
+		byte[] cached = TransformedKeyCache.get(pKeySeed, pKey, rounds);
+		if (cached != null) {
+			return cached;
+		}
+
 		FinalKey key = FinalKeyFactory.createFinalKey();
 		
-		return key.transformMasterKey(pKeySeed, pKey, rounds);
+		byte[] transformed = key.transformMasterKey(pKeySeed, pKey, rounds);
+		TransformedKeyCache.put(pKeySeed, pKey, rounds, transformed);
+		return transformed;
 	}
 
 
@@ -309,6 +330,10 @@ public class PwDatabaseV3 {
 	 * @return True if the ID is used, false otherwise
 	 */
 	protected boolean isGroupIdUsed(PwGroupIdV3 id) {
+		if (isIndexValid()) {
+			return groupsById.containsKey(id.getId());
+		}
+
 		List<PwGroupV3> groups = getGroups();
 		
 		for (int i = 0; i < groups.size(); i++) {
@@ -378,6 +403,7 @@ public class PwDatabaseV3 {
 
 	public void setGroups(List<PwGroupV3> grp) {
 		groups = grp;
+		invalidateIndex();
 	}
 
 	public ArrayList<PwGroupV3> getGrpRoots() {
@@ -403,6 +429,24 @@ public class PwDatabaseV3 {
 	}
 
 	public ArrayList<PwGroupV3> getGrpChildren(PwGroupV3 parent) {
+		ensureIndex();
+		ArrayList<PwGroupV3> kids = groupChildren.get(parent);
+		if (kids == null) {
+			return scanGrpChildren(parent);
+		}
+		return new ArrayList<PwGroupV3>(kids);
+	}
+
+	public ArrayList<PwEntryV3> getEntries(PwGroupV3 parent) {
+		ensureIndex();
+		ArrayList<PwEntryV3> kids = entriesByGroupId.get(parent.groupId);
+		if (kids == null) {
+			return new ArrayList<PwEntryV3>();
+		}
+		return new ArrayList<PwEntryV3>(kids);
+	}
+
+	private ArrayList<PwGroupV3> scanGrpChildren(PwGroupV3 parent) {
 		int idx = groups.indexOf(parent);
 		int target = parent.level + 1;
 		ArrayList<PwGroupV3> kids = new ArrayList<PwGroupV3>();
@@ -416,19 +460,79 @@ public class PwDatabaseV3 {
 		return kids;
 	}
 
-	public ArrayList<PwEntryV3> getEntries(PwGroupV3 parent) {
-		ArrayList<PwEntryV3> kids = new ArrayList<PwEntryV3>();
-		/*
-		 * for( Iterator i = entries.iterator(); i.hasNext(); ) { PwEntryV3 ent
-		 * = (PwEntryV3)i.next(); if( ent.groupId == parent.groupId ) kids.add(
-		 * ent ); }
-		 */
+	/**
+	 * Marks the group/entry index as stale. Call this after changing groups,
+	 * entries or their level/groupId fields directly instead of through the
+	 * add/remove methods.
+	 */
+	public void invalidateIndex() {
+		indexedGroups = null;
+		indexedEntries = null;
+	}
+
+	private boolean isIndexValid() {
+		return indexedGroups != null && indexedGroups == groups && indexedGroupCount == groups.size()
+				&& indexedEntries == entries && indexedEntryCount == entries.size();
+	}
+
+	private void ensureIndex() {
+		if (!isIndexValid()) {
+			buildIndex();
+		}
+	}
+
+	/**
+	 * Builds the child group lists, the groupId lookup and the entry buckets in a
+	 * single pass over groups and entries.
+	 * 
+	 * Groups are stored in depth-first order with their level, so the parent of a
+	 * group is the closest preceding group one level up, provided no group of that
+	 * level or lower comes in between. path holds exactly those candidates.
+	 */
+	private void buildIndex() {
+		groupChildren = new HashMap<PwGroupV3, ArrayList<PwGroupV3>>(groups.size() * 2);
+		groupsById = new HashMap<Integer, PwGroupV3>(groups.size() * 2);
+		entriesByGroupId = new HashMap<Integer, ArrayList<PwEntryV3>>(groups.size() * 2);
+
+		ArrayList<PwGroupV3> path = new ArrayList<PwGroupV3>();
+		for (int i = 0; i < groups.size(); i++) {
+			PwGroupV3 grp = (PwGroupV3) groups.get(i);
+			int level = grp.level;
+
+			while (path.size() > level) {
+				path.remove(path.size() - 1);
+			}
+			if (level > 0 && path.size() == level) {
+				PwGroupV3 parent = path.get(level - 1);
+				if (parent != null) {
+					groupChildren.get(parent).add(grp);
+				}
+			}
+			while (path.size() < level) {
+				path.add(null);
+			}
+			path.add(grp);
+
+			groupChildren.put(grp, new ArrayList<PwGroupV3>());
+			if (!groupsById.containsKey(grp.groupId)) {
+				groupsById.put(grp.groupId, grp);
+			}
+		}
+
 		for (int i = 0; i < entries.size(); i++) {
 			PwEntryV3 ent = (PwEntryV3) entries.get(i);
-			if (ent.groupId == parent.groupId)
-				kids.add(ent);
+			ArrayList<PwEntryV3> bucket = entriesByGroupId.get(ent.groupId);
+			if (bucket == null) {
+				bucket = new ArrayList<PwEntryV3>();
+				entriesByGroupId.put(ent.groupId, bucket);
+			}
+			bucket.add(ent);
 		}
-		return kids;
+
+		indexedGroups = groups;
+		indexedGroupCount = groups.size();
+		indexedEntries = entries;
+		indexedEntryCount = entries.size();
 	}
 
 	public String toString() {
@@ -438,6 +542,8 @@ public class PwDatabaseV3 {
 	public void constructTree(PwGroupV3 currentGroup) {
 		// I'm in root
 		if (currentGroup == null) {
+			buildIndex();
+
 			PwGroupV3 root = new PwGroupV3();
 			rootGroup = root;
 
@@ -536,6 +642,7 @@ public class PwDatabaseV3 {
 		
 		// Add entry to root entries
 		entries.add(newEntry);
+		invalidateIndex();
 		
 	}
 
@@ -545,6 +652,7 @@ public class PwDatabaseV3 {
 		
 		// Add group to root groups
 		groups.add(newGroup);
+		invalidateIndex();
 		
 	}
 
@@ -554,6 +662,7 @@ public class PwDatabaseV3 {
 		
 		// Remove entry from root entry
 		entries.remove(remove);
+		invalidateIndex();
 	}
 
 	
@@ -562,6 +671,7 @@ public class PwDatabaseV3 {
 		
 		// Remove group from root entry
 		groups.remove(remove);
+		invalidateIndex();
 	}
 
 	public PwGroupV3 createGroup() {
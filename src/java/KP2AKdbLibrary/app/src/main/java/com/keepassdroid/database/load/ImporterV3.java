@@ -166,60 +166,8 @@ public class ImporterV3  {
 		PwDbHeaderV3 hdr = new PwDbHeaderV3();
 		hdr.loadFromFile(filebuf, 0 );
 
-		if( (hdr.signature1 != PwDbHeader.PWM_DBSIG_1) || (hdr.signature2 != PwDbHeaderV3.DBSIG_2) ) {
-			throw new InvalidDBSignatureException();
-		}
-
-		if( !hdr.matchesVersion() ) {
-			throw new InvalidDBVersionException();
-		}
-
 		newManager = createDB();
-		newManager.setMasterKey( password, keyfileStream );
-
-		// Select algorithm
-		if( (hdr.flags & PwDbHeaderV3.FLAG_RIJNDAEL) != 0 ) {
-			newManager.algorithm = PwEncryptionAlgorithm.Rjindal;
-		} else if( (hdr.flags & PwDbHeaderV3.FLAG_TWOFISH) != 0 ) {
-			newManager.algorithm = PwEncryptionAlgorithm.Twofish;
-		} else {
-			throw new InvalidAlgorithmException();
-		}
-
-		// Copy for testing
-		newManager.copyHeader(hdr);
-		
-		newManager.numKeyEncRounds = hdr.numKeyEncRounds;
-
-		newManager.name = "KeePass Password Manager";
-
-		// Generate transformedMasterKey from masterKey
-		newManager.makeFinalKey(hdr.masterSeed, hdr.transformSeed, newManager.numKeyEncRounds);
-
-		// Initialize Rijndael algorithm
-		Cipher cipher;
-		try {
-			if ( newManager.algorithm == PwEncryptionAlgorithm.Rjindal ) {
-				cipher = CipherFactory.getInstance("AES/CBC/PKCS5Padding");
-			} else if ( newManager.algorithm == PwEncryptionAlgorithm.Twofish ) {
-				cipher = CipherFactory.getInstance("TWOFISH/CBC/PKCS7PADDING");
-			} else {
-				throw new IOException( "Encryption algorithm is not supported" );
-			}
-
-		} catch (NoSuchAlgorithmException e1) {
-			throw new IOException("No such algorithm");
-		} catch (NoSuchPaddingException e1) {
-			throw new IOException("No such pdading");
-		}
-
-		try {
-			cipher.init( Cipher.DECRYPT_MODE, new SecretKeySpec( newManager.finalKey, "AES" ), new IvParameterSpec( hdr.encryptionIV ) );
-		} catch (InvalidKeyException e1) {
-			throw new IOException("Invalid key");
-		} catch (InvalidAlgorithmParameterException e1) {
-			throw new IOException("Invalid algorithm parameter.");
-		}
+		Cipher cipher = initDecryption(newManager, hdr, password, keyfileStream);
 
 		// Decrypt! The first bytes aren't encrypted (that's the header)
 		int encryptedPartSize;
@@ -302,6 +250,301 @@ public class ImporterV3  {
 		return newManager;
 	}
 
+	/**
+	 * Load a v3 database file without buffering the whole file in memory.
+	 * 
+	 * The encrypted part is decrypted chunk by chunk. Every decrypted chunk is fed
+	 * into the content hash and handed to the group/entry record parser right away,
+	 * so peak memory stays at a small window instead of several copies of the file.
+	 * The content hash is checked once the last record has been read.
+	 * 
+	 * @return new PwDatabaseV3 container.
+	 * @throws IOException on any file error.
+	 * @throws InvalidPasswordException if decryption fails or the checksum does not match.
+	 */
+	public PwDatabaseV3 openDatabaseStreaming( InputStream inStream, String password, InputStream keyfileStream )
+	throws IOException, InvalidDBException
+	{
+		try {
+			// Parse header (unencrypted)
+			byte[] hdrBuf = new byte[PwDbHeaderV3.BUF_SIZE];
+			int hdrSize = readFully(inStream, hdrBuf, 0, hdrBuf.length);
+			if( hdrSize < PwDbHeaderV3.BUF_SIZE )
+				throw new IOException( "File too short for header: "+hdrSize+"<"+PwDbHeaderV3.BUF_SIZE  );
+			PwDbHeaderV3 hdr = new PwDbHeaderV3();
+			hdr.loadFromFile(hdrBuf, 0 );
+
+			PwDatabaseV3 newManager = createDB();
+			Cipher cipher = initDecryption(newManager, hdr, password, keyfileStream);
+
+			MessageDigest md;
+			try {
+				md = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IOException("No SHA-256 algorithm");
+			}
+
+			DecryptedBodyReader body = new DecryptedBodyReader(inStream, cipher, md);
+			byte[] record = new byte[RECORD_HEADER_SIZE + 256 + RECORD_SLACK];
+			try {
+				// Import all groups
+				PwGroupV3 newGrp = new PwGroupV3();
+				for( int i = 0; i < hdr.numGroups; ) {
+					record = readRecord(body, record);
+					int fieldType = LEDataInputStream.readUShort( record, 0 );
+
+					if( fieldType == 0xFFFF ) {
+						// End-Group record.  Save group and count it.
+						newGrp.populateBlankFields(newManager);
+						newManager.groups.add(newGrp);
+						newGrp = new PwGroupV3();
+						i++;
+					}
+					else {
+						readGroupField(newManager, newGrp, fieldType, record, RECORD_HEADER_SIZE);
+					}
+				}
+
+				// Import all entries
+				PwEntryV3 newEnt = new PwEntryV3();
+				for( int i = 0; i < hdr.numEntries; ) {
+					record = readRecord(body, record);
+					int fieldType = LEDataInputStream.readUShort( record, 0 );
+
+					if( fieldType == 0xFFFF ) {
+						// End-Entry record.  Save entry and count it.
+						newEnt.populateBlankFields(newManager);
+						newManager.entries.add(newEnt);
+						newEnt = new PwEntryV3();
+						i++;
+					}
+					else {
+						readEntryField(newManager, newEnt, record, 0);
+					}
+				}
+			} catch (RuntimeException e) {
+				// Records decrypted with a wrong key are garbage and may not parse at all
+				throw new InvalidPasswordException("Invalid key!");
+			} finally {
+				Arrays.fill(record, (byte) 0);
+			}
+
+			// Consume the rest of the body so the padding is verified and the hash is complete
+			body.skipToEnd();
+
+			if( ! Arrays.equals(md.digest(), hdr.contentsHash) ) {
+				Log.w("KeePassDroid","Database file did not decrypt correctly. (checksum code is broken)");
+				throw new InvalidPasswordException("Invalid key!");
+			}
+
+			newManager.constructTree(null);
+
+			return newManager;
+		} finally {
+			inStream.close();
+		}
+	}
+
+
+	/**
+	 * Check the header, derive the final key and return a cipher ready to decrypt the
+	 * encrypted part of the file.
+	 */
+	private Cipher initDecryption(PwDatabaseV3 newManager, PwDbHeaderV3 hdr, String password, InputStream keyfileStream)
+	throws IOException, InvalidDBException
+	{
+		if( (hdr.signature1 != PwDbHeader.PWM_DBSIG_1) || (hdr.signature2 != PwDbHeaderV3.DBSIG_2) ) {
+			throw new InvalidDBSignatureException();
+		}
+
+		if( !hdr.matchesVersion() ) {
+			throw new InvalidDBVersionException();
+		}
+
+		newManager.setMasterKey( password, keyfileStream );
+
+		// Select algorithm
+		if( (hdr.flags & PwDbHeaderV3.FLAG_RIJNDAEL) != 0 ) {
+			newManager.algorithm = PwEncryptionAlgorithm.Rjindal;
+		} else if( (hdr.flags & PwDbHeaderV3.FLAG_TWOFISH) != 0 ) {
+			newManager.algorithm = PwEncryptionAlgorithm.Twofish;
+		} else {
+			throw new InvalidAlgorithmException();
+		}
+
+		// Copy for testing
+		newManager.copyHeader(hdr);
+		
+		newManager.numKeyEncRounds = hdr.numKeyEncRounds;
+
+		newManager.name = "KeePass Password Manager";
+
+		// Generate transformedMasterKey from masterKey
+		newManager.makeFinalKey(hdr.masterSeed, hdr.transformSeed, newManager.numKeyEncRounds);
+
+		// Initialize Rijndael algorithm
+		Cipher cipher;
+		try {
+			if ( newManager.algorithm == PwEncryptionAlgorithm.Rjindal ) {
+				cipher = CipherFactory.getInstance("AES/CBC/PKCS5Padding");
+			} else if ( newManager.algorithm == PwEncryptionAlgorithm.Twofish ) {
+				cipher = CipherFactory.getInstance("TWOFISH/CBC/PKCS7PADDING");
+			} else {
+				throw new IOException( "Encryption algorithm is not supported" );
+			}
+
+		} catch (NoSuchAlgorithmException e1) {
+			throw new IOException("No such algorithm");
+		} catch (NoSuchPaddingException e1) {
+			throw new IOException("No such pdading");
+		}
+
+		try {
+			cipher.init( Cipher.DECRYPT_MODE, new SecretKeySpec( newManager.finalKey, "AES" ), new IvParameterSpec( hdr.encryptionIV ) );
+		} catch (InvalidKeyException e1) {
+			throw new IOException("Invalid key");
+		} catch (InvalidAlgorithmParameterException e1) {
+			throw new IOException("Invalid algorithm parameter.");
+		}
+
+		return cipher;
+	}
+
+	private static int readFully(InputStream in, byte[] buf, int offset, int length) throws IOException {
+		int count = 0;
+		while ( count < length ) {
+			int read = in.read(buf, offset + count, length - count);
+			if ( read == -1 ) {
+				break;
+			}
+			count += read;
+		}
+		return count;
+	}
+
+	/** Size of the type and size fields in front of every group and entry field. */
+	private static final int RECORD_HEADER_SIZE = 6;
+	/** Zeroed bytes kept behind each field so that C string and date readers cannot run past it. */
+	private static final int RECORD_SLACK = 8;
+
+	/**
+	 * Read one field record (type, size and data) into buf, growing it as needed.
+	 * The buffer only grows as data actually arrives, so a bogus size field from a
+	 * wrong key cannot trigger a huge allocation up front.
+	 * 
+	 * @return buf, or the larger buffer that replaced it
+	 */
+	private static byte[] readRecord(DecryptedBodyReader body, byte[] buf) throws IOException, InvalidDBException {
+		if ( !body.readFully(buf, 0, RECORD_HEADER_SIZE) ) {
+			throw new InvalidPasswordException("Invalid key!");
+		}
+		int fieldSize = LEDataInputStream.readInt( buf, 2 );
+		if ( fieldSize < 0 || fieldSize > Integer.MAX_VALUE - RECORD_HEADER_SIZE - RECORD_SLACK ) {
+			throw new InvalidPasswordException("Invalid key!");
+		}
+
+		int end = RECORD_HEADER_SIZE + fieldSize;
+		int pos = RECORD_HEADER_SIZE;
+		while ( pos < end ) {
+			int room = buf.length - RECORD_SLACK - pos;
+			if ( room == 0 ) {
+				long newSize = Math.min(2L * buf.length, (long) end + RECORD_SLACK);
+				byte[] larger = new byte[(int) newSize];
+				System.arraycopy(buf, 0, larger, 0, pos);
+				Arrays.fill(buf, (byte) 0);
+				buf = larger;
+				room = buf.length - RECORD_SLACK - pos;
+			}
+			int chunk = Math.min(room, end - pos);
+			if ( !body.readFully(buf, pos, chunk) ) {
+				throw new InvalidPasswordException("Invalid key!");
+			}
+			pos += chunk;
+		}
+		Arrays.fill(buf, end, end + RECORD_SLACK, (byte) 0);
+
+		return buf;
+	}
+
+	/**
+	 * Decrypts the encrypted part of a v3 file in fixed size chunks and updates the
+	 * content hash with every plain text chunk as it is produced.
+	 */
+	private static class DecryptedBodyReader {
+		private static final int CHUNK_SIZE = 16384;
+
+		private final InputStream mIn;
+		private final Cipher mCipher;
+		private final MessageDigest mDigest;
+		private final byte[] mEncrypted = new byte[CHUNK_SIZE];
+		// Leave room for a block, since some Android versions write more than the final output size
+		private byte[] mPlain = new byte[CHUNK_SIZE + 32];
+		private int mPos;
+		private int mLimit;
+		private boolean mFinished;
+
+		DecryptedBodyReader(InputStream in, Cipher cipher, MessageDigest digest) {
+			mIn = in;
+			mCipher = cipher;
+			mDigest = digest;
+		}
+
+		boolean readFully(byte[] buf, int offset, int length) throws IOException, InvalidDBException {
+			while ( length > 0 ) {
+				if ( !fill() ) {
+					return false;
+				}
+				int count = Math.min(length, mLimit - mPos);
+				System.arraycopy(mPlain, mPos, buf, offset, count);
+				mPos += count;
+				offset += count;
+				length -= count;
+			}
+			return true;
+		}
+
+		void skipToEnd() throws IOException, InvalidDBException {
+			while ( fill() ) {
+				mPos = mLimit;
+			}
+			Arrays.fill(mPlain, (byte) 0);
+		}
+
+		private boolean fill() throws IOException, InvalidDBException {
+			while ( mPos == mLimit && !mFinished ) {
+				int read = mIn.read(mEncrypted, 0, mEncrypted.length);
+				try {
+					int plainSize;
+					if ( read == -1 ) {
+						ensureCapacity(mCipher.getOutputSize(0));
+						plainSize = mCipher.doFinal(mPlain, 0);
+						mFinished = true;
+					} else {
+						ensureCapacity(mCipher.getOutputSize(read));
+						plainSize = mCipher.update(mEncrypted, 0, read, mPlain, 0);
+					}
+					mDigest.update(mPlain, 0, plainSize);
+					mPos = 0;
+					mLimit = plainSize;
+				} catch (ShortBufferException e) {
+					throw new IOException("Buffer too short");
+				} catch (IllegalBlockSizeException e) {
+					throw new IOException("Invalid block size");
+				} catch (BadPaddingException e) {
+					throw new InvalidPasswordException("Invalid key!");
+				}
+			}
+			return mPos < mLimit;
+		}
+
+		private void ensureCapacity(int size) {
+			if ( mPlain.length < size + 16 ) {
+				Arrays.fill(mPlain, (byte) 0);
+				mPlain = new byte[size + 16];
+			}
+		}
+	}
+
 	/**
 	 * KeePass's custom pad style.
 	 * 
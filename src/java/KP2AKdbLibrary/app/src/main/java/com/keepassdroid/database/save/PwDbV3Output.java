@@ -20,7 +20,12 @@
 package com.keepassdroid.database.save;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.DigestOutputStream;
 import java.security.InvalidAlgorithmParameterException;
@@ -28,10 +33,14 @@ import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.CipherOutputStream;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -69,6 +78,113 @@ public class PwDbV3Output extends PwDbOutput {
 		
 		PwDbHeader header = outputHeader(mOS);
 		
+		Cipher cipher = createCipher(header);
+
+		try {
+			CipherOutputStream cos = new CipherOutputStream(mOS, cipher);
+			BufferedOutputStream bos = new BufferedOutputStream(cos);
+			outputPlanGroupAndEntries(bos);
+			bos.flush();
+			bos.close();
+
+		} catch (IOException e) {
+			throw new PwDbOutputException("Failed to output final encrypted part.");
+		}
+	}
+
+	/**
+	 * Same result as {@link #output()}, but groups and entries are serialized only
+	 * once. The plain text is written to an in-memory buffer, hashed for the header
+	 * and then encrypted from that same buffer. Needs about the size of the
+	 * unencrypted database in memory; see {@link #outputSpooled(File)} for large
+	 * databases.
+	 */
+	public void outputBuffered() throws PwDbOutputException {
+		prepForOutput();
+
+		PwDbHeaderV3 header = createHeader();
+
+		PlainBuffer plain = new PlainBuffer();
+		try {
+			outputPlanGroupAndEntries(plain);
+
+			MessageDigest md = createDigest();
+			md.update(plain.getBuffer(), 0, plain.size());
+			header.contentsHash = md.digest();
+
+			writeHeader(header, mOS);
+
+			Cipher cipher = createCipher(header);
+			try {
+				encrypt(cipher, plain.getBuffer(), plain.size(), mOS);
+				mOS.close();
+			} catch (IOException e) {
+				throw new PwDbOutputException("Failed to output final encrypted part.");
+			}
+		} finally {
+			plain.wipe();
+		}
+	}
+
+	/**
+	 * Same result as {@link #output()}, with groups and entries serialized only once
+	 * and memory use independent of the database size. The plain text is hashed
+	 * while it is encrypted into a temporary file in spoolDir. Once the hash is
+	 * known the header and the spooled cipher text are copied to the output stream.
+	 * The temporary file only ever contains encrypted data and is deleted afterwards.
+	 */
+	public void outputSpooled(File spoolDir) throws PwDbOutputException {
+		prepForOutput();
+
+		PwDbHeaderV3 header = createHeader();
+		Cipher cipher = createCipher(header);
+		MessageDigest md = createDigest();
+
+		File spool;
+		try {
+			spool = File.createTempFile("kdb", ".tmp", spoolDir);
+		} catch (IOException e) {
+			throw new PwDbOutputException("Failed to create temporary file: " + e.getMessage());
+		}
+
+		try {
+			try {
+				CipherOutputStream cos = new CipherOutputStream(new FileOutputStream(spool), cipher);
+				DigestOutputStream dos = new DigestOutputStream(cos, md);
+				BufferedOutputStream bos = new BufferedOutputStream(dos);
+				outputPlanGroupAndEntries(bos);
+				bos.flush();
+				bos.close();
+			} catch (IOException e) {
+				throw new PwDbOutputException("Failed to output final encrypted part.");
+			}
+
+			header.contentsHash = md.digest();
+			writeHeader(header, mOS);
+
+			try {
+				InputStream in = new FileInputStream(spool);
+				try {
+					byte[] buf = new byte[COPY_BUFFER_SIZE];
+					int read;
+					while ((read = in.read(buf)) != -1) {
+						mOS.write(buf, 0, read);
+					}
+				} finally {
+					in.close();
+				}
+				mOS.close();
+			} catch (IOException e) {
+				throw new PwDbOutputException("Failed to output final encrypted part.");
+			}
+		} finally {
+			spool.delete();
+		}
+	}
+
+	private static final int COPY_BUFFER_SIZE = 16384;
+
+	private Cipher createCipher(PwDbHeader header) throws PwDbOutputException {
 		byte[] finalKey = getFinalKey(header);
 		
 		Cipher cipher;
@@ -86,18 +202,64 @@ public class PwDbV3Output extends PwDbOutput {
 
 		try {
 			cipher.init( Cipher.ENCRYPT_MODE, new SecretKeySpec(finalKey, "AES" ), new IvParameterSpec(header.encryptionIV) );
-			CipherOutputStream cos = new CipherOutputStream(mOS, cipher);
-			BufferedOutputStream bos = new BufferedOutputStream(cos);
-			outputPlanGroupAndEntries(bos);
-			bos.flush();
-			bos.close();
-
 		} catch (InvalidKeyException e) {
 			throw new PwDbOutputException("Invalid key");
 		} catch (InvalidAlgorithmParameterException e) {
 			throw new PwDbOutputException("Invalid algorithm parameter.");
-		} catch (IOException e) {
-			throw new PwDbOutputException("Failed to output final encrypted part.");
+		}
+
+		return cipher;
+	}
+
+	/**
+	 * Encrypt buf in fixed size chunks into os, reusing one output buffer instead of
+	 * letting the cipher allocate a copy of the whole plain text.
+	 */
+	private static void encrypt(Cipher cipher, byte[] buf, int length, OutputStream os) throws IOException, PwDbOutputException {
+		byte[] out = new byte[cipher.getOutputSize(COPY_BUFFER_SIZE)];
+		try {
+			int offset = 0;
+			while (offset < length) {
+				int count = Math.min(COPY_BUFFER_SIZE, length - offset);
+				int written = cipher.update(buf, offset, count, out, 0);
+				os.write(out, 0, written);
+				offset += count;
+			}
+			if (out.length < cipher.getOutputSize(0)) {
+				out = new byte[cipher.getOutputSize(0)];
+			}
+			int written = cipher.doFinal(out, 0);
+			os.write(out, 0, written);
+		} catch (ShortBufferException e) {
+			throw new PwDbOutputException("Buffer too short");
+		} catch (IllegalBlockSizeException e) {
+			throw new PwDbOutputException("Invalid block size");
+		} catch (BadPaddingException e) {
+			throw new PwDbOutputException("Bad padding");
+		}
+	}
+
+	private static MessageDigest createDigest() throws PwDbOutputException {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new PwDbOutputException("SHA-256 not implemented here.");
+		}
+	}
+
+	/** Plain text buffer that hands out its backing array and can be wiped after use. */
+	private static class PlainBuffer extends ByteArrayOutputStream {
+		PlainBuffer() {
+			super(COPY_BUFFER_SIZE);
+		}
+
+		byte[] getBuffer() {
+			return buf;
+		}
+
+		void wipe() {
+			Arrays.fill(buf, (byte) 0);
+			count = 0;
 		}
 	}
 	
@@ -107,7 +269,32 @@ public class PwDbV3Output extends PwDbOutput {
 	}
 
 	public PwDbHeader outputHeader(OutputStream os) throws PwDbOutputException {
-		// Build header
+		PwDbHeaderV3 header = createHeader();
+		
+		// Write checksum Checksum
+		MessageDigest md = createDigest();
+		
+		NullOutputStream nos;
+		nos = new NullOutputStream();
+		DigestOutputStream dos = new DigestOutputStream(nos, md);
+		BufferedOutputStream bos = new BufferedOutputStream(dos);
+		try {
+			outputPlanGroupAndEntries(bos);
+			bos.flush();
+			bos.close();
+		} catch (IOException e) {
+			throw new PwDbOutputException("Failed to generate checksum.");
+		}
+
+		header.contentsHash = md.digest();
+		
+		writeHeader(header, os);
+
+		return header;
+	}
+
+	/** Build the header with fresh seeds and IV, but without the contents hash. */
+	private PwDbHeaderV3 createHeader() throws PwDbOutputException {
 		PwDbHeaderV3 header = new PwDbHeaderV3();
 		header.signature1 = PwDbHeader.PWM_DBSIG_1;
 		header.signature2 = PwDbHeaderV3.DBSIG_2;
@@ -127,38 +314,17 @@ public class PwDbV3Output extends PwDbOutput {
 		header.numKeyEncRounds = mPM.getNumKeyEncRecords();
 		
 		setIVs(header);
-		
-		// Write checksum Checksum
-		MessageDigest md = null;
-		try {
-			md = MessageDigest.getInstance("SHA-256");
-		} catch (NoSuchAlgorithmException e) {
-			throw new PwDbOutputException("SHA-256 not implemented here.");
-		}
-		
-		NullOutputStream nos;
-		nos = new NullOutputStream();
-		DigestOutputStream dos = new DigestOutputStream(nos, md);
-		BufferedOutputStream bos = new BufferedOutputStream(dos);
-		try {
-			outputPlanGroupAndEntries(bos);
-			bos.flush();
-			bos.close();
-		} catch (IOException e) {
-			throw new PwDbOutputException("Failed to generate checksum.");
-		}
 
-		header.contentsHash = md.digest();
-		
-		// Output header
+		return header;
+	}
+
+	private static void writeHeader(PwDbHeaderV3 header, OutputStream os) throws PwDbOutputException {
 		PwDbHeaderOutputV3 pho = new PwDbHeaderOutputV3(header, os);
 		try {
 			pho.output();
 		} catch (IOException e) {
 			throw new PwDbOutputException("Failed to output the header.");
 		}
-
-		return header;
 	}
 	
 	public void outputPlanGroupAndEntries(OutputStream os) throws PwDbOutputException  {
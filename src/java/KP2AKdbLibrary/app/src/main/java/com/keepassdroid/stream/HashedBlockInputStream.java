@@ -21,21 +21,47 @@ package com.keepassdroid.stream;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 
 public class HashedBlockInputStream extends InputStream {
 	
 	private final static int HASH_SIZE = 32;
+	
+	// Block header: uint32 index, hash, int32 size
+	private final static int HASH_OFFSET = 4;
+	private final static int SIZE_OFFSET = HASH_OFFSET + HASH_SIZE;
+	private final static int HEADER_SIZE = SIZE_OFFSET + 4;
 
 	private LEDataInputStream baseStream;
 	private int bufferPos = 0;
-	private byte[] buffer = new byte[0];
+	private Block current = new Block();
 	private long bufferIndex = 0;
 	private boolean atEnd = false;
 	
+	// Reused for every block, so reading does not allocate once the buffer has grown to the block size.
+	// With read ahead these are only touched by the worker.
+	private final byte[] header = new byte[HEADER_SIZE];
+	private final byte[] computedHash = new byte[HASH_SIZE];
+	private MessageDigest md;
+	
+	private ReadAhead readAhead;
+	
+	private static final class Block {
+		byte[] data = new byte[0];
+		int length = 0;
+		boolean end = false;
+		IOException error = null;
+	}
+	
 	
 	@Override
 	public int read(byte[] b) throws IOException {
@@ -46,6 +72,21 @@ public class HashedBlockInputStream extends InputStream {
 		baseStream = new LEDataInputStream(is);
 	}
 	
+	/**
+	 * Reads and verifies up to readAheadBlocks blocks on the executor while the
+	 * caller works on the current one. The data comes out in the same order, and a
+	 * hash mismatch fails the read of the affected block just like without read ahead.
+	 * 
+	 * @param readAheadBlocks 0 to verify on the reading thread
+	 */
+	public HashedBlockInputStream(InputStream is, Executor executor, int readAheadBlocks) {
+		this(is);
+		
+		if ( readAheadBlocks > 0 ) {
+			readAhead = new ReadAhead(executor, readAheadBlocks);
+		}
+	}
+	
 	@Override
 	public int read(byte[] b, int offset, int length) throws IOException {
 		if ( atEnd ) return -1;
@@ -53,18 +94,19 @@ public class HashedBlockInputStream extends InputStream {
 		int remaining = length;
 		
 		while ( remaining > 0 ) {
-			if ( bufferPos == buffer.length ) {
+			if ( bufferPos == current.length ) {
 				// Get more from the source into the buffer
-				if ( ! ReadHashedBlock() ) {
-					return length - remaining;
+				if ( ! nextBlock() ) {
+					int read = length - remaining;
+					return read > 0 ? read : -1;
 				}
 				
 			}
 
 			// Copy from buffer out
-			int copyLen = Math.min(buffer.length - bufferPos, remaining);
+			int copyLen = Math.min(current.length - bufferPos, remaining);
 			
-			System.arraycopy(buffer, bufferPos, b, offset, copyLen);
+			System.arraycopy(current.data, bufferPos, b, offset, copyLen);
 			
 			offset += copyLen;
 			bufferPos += copyLen;
@@ -74,6 +116,17 @@ public class HashedBlockInputStream extends InputStream {
 		
 		return length;
 	}
+	
+	/**
+	 * @return false, when the end of the source stream is reached 
+	 */
+	private boolean nextBlock() throws IOException {
+		if ( readAhead != null ) {
+			return readAhead.next();
+		}
+		
+		return ReadHashedBlock();
+	}
 
 	/**
 	 * @return false, when the end of the source stream is reached 
@@ -84,72 +137,234 @@ public class HashedBlockInputStream extends InputStream {
 		
 		bufferPos = 0;
 		
-		long index = baseStream.readUInt();
-		if ( index != bufferIndex ) {
-			throw new IOException("Invalid data format");
+		readBlock(current);
+		
+		if ( current.end ) {
+			atEnd = true;
+			return false;
 		}
-		bufferIndex++;
 		
-		byte[] storedHash = baseStream.readBytes(32);
-		if ( storedHash == null || storedHash.length != HASH_SIZE) {
+		return true;
+	}
+	
+	/** Read the next block from the base stream into block and verify its hash */
+	private void readBlock(Block block) throws IOException {
+		block.length = 0;
+		block.end = false;
+		block.error = null;
+		
+		readFully(header, HEADER_SIZE);
+		
+		long index = LEDataInputStream.readUInt(header, 0);
+		if ( index != bufferIndex ) {
 			throw new IOException("Invalid data format");
 		}
+		bufferIndex++;
 		
-		int bufferSize = LEDataInputStream.readInt(baseStream);
+		int bufferSize = LEDataInputStream.readInt(header, SIZE_OFFSET);
 		if ( bufferSize < 0 ) {
 			throw new IOException("Invalid data format");
 		}
 		
 		if ( bufferSize == 0 ) {
 			for (int hash = 0; hash < HASH_SIZE; hash++) {
-				if ( storedHash[hash] != 0 ) {
+				if ( header[HASH_OFFSET + hash] != 0 ) {
 					throw new IOException("Invalid data format");
 				}
 			}
 				
-			atEnd = true;
-			buffer = new byte[0];
-			return false;
+			block.end = true;
+			return;
 		}
 		
-		buffer = baseStream.readBytes(bufferSize);
-		if ( buffer == null || buffer.length != bufferSize ) {
-			throw new IOException("Invalid data format");
+		if ( block.data.length < bufferSize ) {
+			Arrays.fill(block.data, (byte) 0);
+			block.data = new byte[bufferSize];
 		}
+		readFully(block.data, bufferSize);
 		
-		MessageDigest md = null;
+		MessageDigest md = getDigest();
+		md.update(block.data, 0, bufferSize);
 		try {
-			md = MessageDigest.getInstance("SHA-256");
-		} catch (NoSuchAlgorithmException e) {
-			throw new IOException("SHA-256 not implemented here.");
-		}
-		
-		byte[] computedHash = md.digest(buffer);
-		if ( computedHash == null || computedHash.length != HASH_SIZE ) {
+			if ( md.digest(computedHash, 0, HASH_SIZE) != HASH_SIZE ) {
+				throw new IOException("Hash wrong size");
+			}
+		} catch (DigestException e) {
 			throw new IOException("Hash wrong size");
 		}
 		
-		if ( ! Arrays.equals(storedHash, computedHash) ) {
-			throw new IOException("Hashes didn't match.");
+		for (int hash = 0; hash < HASH_SIZE; hash++) {
+			if ( header[HASH_OFFSET + hash] != computedHash[hash] ) {
+				throw new IOException("Hashes didn't match.");
+			}
 		}
 
-		return true;
+		block.length = bufferSize;
+	}
+	
+	private MessageDigest getDigest() throws IOException {
+		if ( md == null ) {
+			try {
+				md = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IOException("SHA-256 not implemented here.");
+			}
+		}
+		
+		return md;
+	}
+	
+	/** Fill the first length bytes of buf, a stream ending early is a format error */
+	private void readFully(byte[] buf, int length) throws IOException {
+		int count = 0;
+		while ( count < length ) {
+			int read = baseStream.read(buf, count, length - count);
+			if ( read == -1 ) {
+				throw new IOException("Invalid data format");
+			}
+			
+			count += read;
+		}
+	}
+	
+	/**
+	 * Reads and verifies blocks on a worker and hands them to the reader in order.
+	 * Blocks go around between the free and the ready queue, so their buffers are
+	 * reused just like in the synchronous case.
+	 */
+	private final class ReadAhead implements Runnable {
+		private final Executor executor;
+		private final BlockingQueue<Block> ready;
+		private final BlockingQueue<Block> free;
+		private FutureTask<Void> task;
+		private volatile boolean closed = false;
+		
+		ReadAhead(Executor executor, int blocks) {
+			this.executor = executor;
+			ready = new ArrayBlockingQueue<Block>(blocks);
+			
+			// One more for the block being read, the current block is returned on every switch
+			free = new ArrayBlockingQueue<Block>(blocks + 2);
+			for (int i = 0; i < blocks + 1; i++) {
+				free.add(new Block());
+			}
+		}
+		
+		public void run() {
+			try {
+				while ( ! closed ) {
+					Block block = free.take();
+					try {
+						readBlock(block);
+					} catch (IOException e) {
+						block.error = e;
+					} catch (Throwable e) {
+						block.error = new IOException(e);
+					}
+					
+					ready.put(block);
+					if ( block.end || block.error != null ) {
+						return;
+					}
+				}
+			} catch (InterruptedException e) {
+				// Stream was closed
+			}
+		}
+		
+		boolean next() throws IOException {
+			if ( closed ) {
+				throw new IOException("Stream closed");
+			}
+			if ( current.error != null ) {
+				throw current.error;
+			}
+			if ( current.end ) {
+				return false;
+			}
+			
+			if ( task == null ) {
+				task = new FutureTask<Void>(this, null);
+				executor.execute(task);
+			}
+			
+			Block block;
+			try {
+				block = ready.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			
+			free.offer(current);
+			current = block;
+			bufferPos = 0;
+			
+			if ( block.error != null ) {
+				throw block.error;
+			}
+			if ( block.end ) {
+				atEnd = true;
+				return false;
+			}
+			
+			return true;
+		}
+		
+		void close() {
+			closed = true;
+			if ( task != null ) {
+				task.cancel(true);
+			}
+			
+			for (Block block : ready) {
+				Arrays.fill(block.data, (byte) 0);
+			}
+			for (Block block : free) {
+				Arrays.fill(block.data, (byte) 0);
+			}
+		}
 	}
 
+	/**
+	 * Skipped blocks are still read and verified, but not copied anywhere.
+	 */
 	@Override
 	public long skip(long n) throws IOException {
-		return 0;
+		long remaining = n;
+		
+		while ( remaining > 0 && ! atEnd ) {
+			if ( bufferPos == current.length ) {
+				if ( ! nextBlock() ) {
+					break;
+				}
+			}
+			
+			int skipLen = (int) Math.min(current.length - bufferPos, remaining);
+			bufferPos += skipLen;
+			remaining -= skipLen;
+		}
+		
+		return n > 0 ? n - remaining : 0;
+	}
+	
+	/**
+	 * @return the verified bytes left in the current block
+	 */
+	@Override
+	public int available() throws IOException {
+		return current.length - bufferPos;
 	}
 
 	@Override
 	public int read() throws IOException {
 		if ( atEnd ) return -1;
 		
-		if ( bufferPos == buffer.length ) {
-			if ( ! ReadHashedBlock() ) return -1;
+		if ( bufferPos == current.length ) {
+			if ( ! nextBlock() ) return -1;
 		}
 		
-		int output = buffer[bufferPos];
+		int output = current.data[bufferPos] & 0xFF;
 		bufferPos++;
 		
 		return output;
@@ -157,6 +372,12 @@ public class HashedBlockInputStream extends InputStream {
 
 	@Override
 	public void close() throws IOException {
+		if ( readAhead != null ) {
+			readAhead.close();
+		}
+		
+		Arrays.fill(current.data, (byte) 0);
+		bufferPos = current.length = 0;
 		baseStream.close();
 	}
 
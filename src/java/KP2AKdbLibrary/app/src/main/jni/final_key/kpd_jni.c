@@ -118,9 +118,8 @@ JNIEXPORT void JNICALL JNI_OnUnload( JavaVM *vm, void *reserved ) {
   return;
 }
 
-JNIEXPORT jlong JNICALL Java_com_keepassdroid_crypto_NativeAESCipherSpi_nInit(JNIEnv *env, jobject this, jboolean encrypting, jbyteArray key, jbyteArray iv) {
+static int init_state(JNIEnv *env, aes_state *state, jboolean encrypting, jbyteArray key, jbyteArray iv) {
   uint8_t ckey[32];
-  aes_state *state;
   jint key_len = (*env)->GetArrayLength(env, key);
   jint iv_len = (*env)->GetArrayLength(env, iv);
 
@@ -129,11 +128,6 @@ JNIEXPORT jlong JNICALL Java_com_keepassdroid_crypto_NativeAESCipherSpi_nInit(JN
     return -1;
   }
 
-  state = (aes_state *)malloc(sizeof(aes_state));
-  if( state == NULL ) {
-    (*env)->ThrowNew(env, no_mem, "Cannot allocate memory for the encryption state");
-    return -1;
-  }
   memset(state, 0, sizeof(aes_state));
 
   (*env)->GetByteArrayRegion(env, key, (jint)0, key_len, (jbyte *)ckey);
@@ -146,11 +140,41 @@ JNIEXPORT jlong JNICALL Java_com_keepassdroid_crypto_NativeAESCipherSpi_nInit(JN
     state->direction = DECRYPTION;
     aes_decrypt_key(ckey, key_len, DEC_CTX(state));
   }
+  memset(ckey, 0, sizeof(ckey));
+
+  return 0;
+}
+
+JNIEXPORT jlong JNICALL Java_com_keepassdroid_crypto_NativeAESCipherSpi_nInit(JNIEnv *env, jobject this, jboolean encrypting, jbyteArray key, jbyteArray iv) {
+  aes_state *state;
+
+  state = (aes_state *)malloc(sizeof(aes_state));
+  if( state == NULL ) {
+    (*env)->ThrowNew(env, no_mem, "Cannot allocate memory for the encryption state");
+    return -1;
+  }
+
+  if( init_state(env, state, encrypting, key, iv) != 0 ) {
+    free(state);
+    return -1;
+  }
 
   return (jlong)state;
 }
 
+// re-key an existing state, so pooled contexts can be reused without another malloc
+JNIEXPORT jint JNICALL Java_com_keepassdroid_crypto_NativeAESCipherSpi_nReset(JNIEnv *env, jobject this, jlong state, jboolean encrypting, jbyteArray key, jbyteArray iv) {
+  return init_state(env, (aes_state *)state, encrypting, key, iv);
+}
+
+// clear key schedule, iv and cached data of a state that goes back to the pool
+JNIEXPORT void JNICALL Java_com_keepassdroid_crypto_NativeAESCipherSpi_nWipe(JNIEnv *env, jclass this, jlong state) {
+  memset((void *)state, 0, sizeof(aes_state));
+  ((aes_state *)state)->direction = FINALIZED;
+}
+
 JNIEXPORT void JNICALL Java_com_keepassdroid_crypto_NativeAESCipherSpi_nCleanup(JNIEnv *env, jclass this, jlong state) {
+  memset((void *)state, 0, sizeof(aes_state));
   free((void *)state);
 }
 
@@ -163,89 +187,251 @@ JNIEXPORT void JNICALL Java_com_keepassdroid_crypto_NativeAESCipherSpi_nCleanup(
   not a full block.
 */
 
-JNIEXPORT jint JNICALL Java_com_keepassdroid_crypto_NativeAESCipherSpi_nUpdate(JNIEnv *env, jobject this,
-	jlong state, jbyteArray input, jint inputOffset, jint inputLen, jbyteArray output, jint outputOffset, jint outputSize) {
+typedef enum {
+  KPD_OK,
+  KPD_FINALIZED,
+  KPD_SHORT_OUTPUT,
+  KPD_NO_MEMORY,
+  KPD_CRYPT_FAILED,
+  KPD_INCOMPLETE_BLOCK,
+  KPD_BAD_PADDING
+} kpd_result_t;
+
+static void throw_result(JNIEnv *env, kpd_result_t result) {
+  switch( result ) {
+    case KPD_FINALIZED:
+      (*env)->ThrowNew(env, bad_arg, "Trying to use a finalized state");
+      break;
+    case KPD_SHORT_OUTPUT:
+      (*env)->ThrowNew(env, short_buf, "Insufficient space in output buffer");
+      break;
+    case KPD_NO_MEMORY:
+      (*env)->ThrowNew(env, no_mem, "Unable to allocate heap space for encryption data");
+      break;
+    case KPD_CRYPT_FAILED:
+      (*env)->ThrowNew(env, bad_arg, "Failed to en/decrypt data"); // FIXME: get a better exception class for this...
+      break;
+    case KPD_INCOMPLETE_BLOCK:
+      (*env)->ThrowNew(env, bad_padding, "Incomplete final block in cache for decryption state");
+      break;
+    case KPD_BAD_PADDING:
+      (*env)->ThrowNew(env, bad_padding, "Failed to verify padding during decryption");
+      break;
+    default:
+      break;
+  }
+}
+
+static kpd_result_t crypt_blocks(aes_state *c_state, const uint8_t *in, uint8_t *out, uint32_t len) {
   int aes_ret;
-  uint32_t outLen, bytes2cache, cryptLen;
-  void *in, *out;
-  uint8_t *c_input, *c_output;
-  aes_state *c_state;
 
-  #if defined(KPD_DEBUG)
-  __android_log_print(ANDROID_LOG_INFO, "kpd_jni.c/nUpdate", "entry: inputLen=%d, outputSize=%d", inputLen, outputSize);
-  #endif
+  if( c_state->direction == ENCRYPTION )
+    aes_ret = aes_cbc_encrypt(in, out, len, c_state->iv, ENC_CTX(c_state));
+  else
+    aes_ret = aes_cbc_decrypt(in, out, len, c_state->iv, DEC_CTX(c_state));
+  return aes_ret == EXIT_SUCCESS ? KPD_OK : KPD_CRYPT_FAILED;
+}
 
-  // step 1: first, some housecleaning
-  if( !inputLen || !outputSize || outputOffset < 0 || !input || !output ) {
-    (*env)->ThrowNew(env, bad_arg, "nUpdate: called with 1 or more invalid arguments");
-    return -1;
-  }
-  c_state = (aes_state *)state;
-  if( c_state->direction == FINALIZED ) {
-    (*env)->ThrowNew(env, bad_arg, "Trying to update a finalized state");
-    return -1;
-  }
+/*
+  En/decrypt cache + input straight into out. Whole blocks are written to
+  out, the 16-31 trailing bytes stay in the cache for the next call (or the
+  final one). in and out must not overlap, see update_buffers.
+*/
+static kpd_result_t update_state(aes_state *c_state, const uint8_t *in, uint32_t inLen, uint8_t *out, uint32_t outSize, uint32_t *outLen) {
+  uint8_t block[AES_BLOCK_SIZE] __attribute__ ((aligned (16)));
+  uint32_t cryptLen, bytes2cache, len, pos, n;
+  kpd_result_t ret;
 
-  // step 1.5: calculate cryptLen and outLen
-  cryptLen = inputLen + c_state->cache_len;
+  if( c_state->direction == FINALIZED )
+    return KPD_FINALIZED;
+
+  cryptLen = inLen + c_state->cache_len;
   if( cryptLen < CACHE_SIZE ) {
-    (*env)->GetByteArrayRegion(env, input, inputOffset, inputLen, (jbyte *)(c_state->cache + c_state->cache_len));
+    memcpy(c_state->cache + c_state->cache_len, in, inLen);
     c_state->cache_len = cryptLen;
-    return 0;
+    *outLen = 0;
+    return KPD_OK;
   }
   // now we're guaranteed that cryptLen >= CACHE_SIZE (32)
   bytes2cache = (cryptLen & 15) + AES_BLOCK_SIZE; // mask bottom 4 bits plus 1 block
-  outLen = (cryptLen - bytes2cache); // output length is now aligned to a 16-byte boundary
-  if( outLen > (uint32_t)outputSize ) {
-    (*env)->ThrowNew(env, bad_arg, "Output buffer does not have enough space");
-    return -1;
+  len = cryptLen - bytes2cache; // output length is now aligned to a 16-byte boundary
+  if( len > outSize )
+    return KPD_SHORT_OUTPUT;
+
+  // blocks starting in the cache are put together on the stack, at most one of them takes bytes from the input
+  for( pos = 0; pos < c_state->cache_len && pos < len; pos += AES_BLOCK_SIZE ) {
+    n = c_state->cache_len - pos;
+    if( n > AES_BLOCK_SIZE )
+      n = AES_BLOCK_SIZE;
+    memcpy(block, c_state->cache + pos, n);
+    memcpy(block + n, in, AES_BLOCK_SIZE - n);
+    if( (ret = crypt_blocks(c_state, block, out + pos, AES_BLOCK_SIZE)) != KPD_OK ) {
+      memset(block, 0, sizeof(block));
+      return ret;
+    }
   }
+  memset(block, 0, sizeof(block));
 
-  // step 2: allocate memory to hold input and output data
-  in = malloc(cryptLen+ALIGN_EXTRA);
-  if( in == NULL ) {
-    (*env)->ThrowNew(env, no_mem, "Unable to allocate heap space for encryption input");
-    return -1;
+  // everything else is read straight from the input
+  if( pos < len ) {
+    if( (ret = crypt_blocks(c_state, in + (pos - c_state->cache_len), out + pos, len - pos)) != KPD_OK )
+      return ret;
   }
-  c_input = ALIGN16(in);
 
-  out = malloc(outLen+ALIGN_EXTRA);
-  if( out == NULL ) {
-    free(in);
-    (*env)->ThrowNew(env, no_mem, "Unable to allocate heap space for encryption output");
-    return -1;
+  // cache overflow bytes for next call
+  if( len < c_state->cache_len ) {
+    memmove(c_state->cache, c_state->cache + len, c_state->cache_len - len);
+    memcpy(c_state->cache + (c_state->cache_len - len), in, inLen);
+  } else {
+    memcpy(c_state->cache, in + (len - c_state->cache_len), bytes2cache);
   }
-  c_output = ALIGN16(out);
+  c_state->cache_len = bytes2cache;
 
-  // step 3: copy data from Java and en/decrypt it
-  if( c_state->cache_len ) {
-    memcpy(c_input, c_state->cache, c_state->cache_len);
-    (*env)->GetByteArrayRegion(env, input, inputOffset, inputLen, (jbyte *)(c_input + c_state->cache_len));
-  } else {
-    (*env)->GetByteArrayRegion(env, input, inputOffset, inputLen, (jbyte *)c_input);
+  *outLen = len;
+  return KPD_OK;
+}
+
+/*
+  Same as update_state, but in and out may point into the same buffer. In
+  place updates without cached bytes are handled by the cbc functions, any
+  other overlap goes through a copy of the input.
+*/
+static kpd_result_t update_buffers(aes_state *c_state, const uint8_t *in, uint32_t inLen, uint8_t *out, uint32_t outSize, uint32_t *outLen) {
+  uint8_t *copy;
+  kpd_result_t ret;
+
+  if( in + inLen <= out || out + outSize <= in || (in == out && c_state->cache_len == 0) )
+    return update_state(c_state, in, inLen, out, outSize, outLen);
+
+  copy = malloc(inLen);
+  if( copy == NULL )
+    return KPD_NO_MEMORY;
+  memcpy(copy, in, inLen);
+  ret = update_state(c_state, copy, inLen, out, outSize, outLen);
+  memset(copy, 0, inLen);
+  free(copy);
+  return ret;
+}
+
+/*
+  outSize must be at least 32 for encryption since the buffer may contain >= 1 full block
+  outSize must be at least 16 for decryption
+*/
+static kpd_result_t final_state(aes_state *c_state, jboolean doPadding, uint8_t *out, uint32_t outSize, uint32_t *outLen) {
+  uint32_t padValue, paddedCacheLen, i;
+  uint8_t final_output[CACHE_SIZE] __attribute__ ((aligned (16)));
+  kpd_result_t ret;
+
+  if( c_state->direction == FINALIZED )
+    return KPD_FINALIZED;
+
+  // allow fetching of remaining bytes from cache
+  if( !doPadding ) {
+    if( outSize < c_state->cache_len )
+      return KPD_SHORT_OUTPUT;
+    memcpy(out, c_state->cache, c_state->cache_len);
+    c_state->direction = FINALIZED;
+    *outLen = c_state->cache_len;
+    return KPD_OK;
   }
-  if( c_state->direction == ENCRYPTION )
-    aes_ret = aes_cbc_encrypt(c_input, c_output, outLen, c_state->iv, ENC_CTX(c_state));
-  else
-    aes_ret = aes_cbc_decrypt(c_input, c_output, outLen, c_state->iv, DEC_CTX(c_state));
-  if( aes_ret != EXIT_SUCCESS ) {
-    free(in);
-    free(out);
-    (*env)->ThrowNew(env, bad_arg, "Failed to encrypt input data"); // FIXME: get a better exception class for this...
+
+  if( c_state->direction == ENCRYPTION ) {
+    if( c_state->cache_len >= 16 ) {
+      paddedCacheLen = 32;
+    } else {
+      paddedCacheLen = 16;
+    }
+    if( outSize < paddedCacheLen )
+      return KPD_SHORT_OUTPUT;
+    padValue = paddedCacheLen - c_state->cache_len;
+    if(!padValue) padValue = 16;
+    memset(c_state->cache + c_state->cache_len, padValue, padValue);
+    if( (ret = crypt_blocks(c_state, c_state->cache, final_output, paddedCacheLen)) != KPD_OK )
+      return ret;
+    memcpy(out, final_output, paddedCacheLen);
+    memset(final_output, 0, sizeof(final_output));
+    c_state->direction = FINALIZED;
+    *outLen = paddedCacheLen;
+    return KPD_OK;
+  } else { // DECRYPTION
+    paddedCacheLen = c_state->cache_len;
+    if( paddedCacheLen != 16 )
+      return KPD_INCOMPLETE_BLOCK;
+    if( (ret = crypt_blocks(c_state, c_state->cache, final_output, paddedCacheLen)) != KPD_OK )
+      return ret;
+    // only the last padValue bytes belong to the padding, the data before may hold the same value
+    padValue = final_output[paddedCacheLen-1];
+    if( padValue < 1 || padValue > AES_BLOCK_SIZE ) {
+      memset(final_output, 0, sizeof(final_output));
+      return KPD_BAD_PADDING;
+    }
+    for( i = paddedCacheLen - padValue; i < paddedCacheLen; i++ ) {
+      if( final_output[i] != padValue ) {
+        memset(final_output, 0, sizeof(final_output));
+        return KPD_BAD_PADDING;
+      }
+    }
+    if( outSize < paddedCacheLen - padValue ) {
+      memset(final_output, 0, sizeof(final_output));
+      return KPD_SHORT_OUTPUT;
+    }
+    memcpy(out, final_output, paddedCacheLen - padValue);
+    memset(final_output, 0, sizeof(final_output));
+    c_state->direction = FINALIZED;
+    *outLen = paddedCacheLen - padValue;
+    return KPD_OK;
+  }
+}
+
+static int check_region(JNIEnv *env, jbyteArray array, jint offset, jint len) {
+  if( offset < 0 || len < 0 || offset > (*env)->GetArrayLength(env, array) - len ) {
+    (*env)->ThrowNew(env, bad_arg, "Array region out of bounds");
     return -1;
   }
-  (*env)->SetByteArrayRegion(env, output, outputOffset, outLen, (jbyte *)c_output);
+  return 0;
+}
 
-  // step 4: cleanup and return
-  if( bytes2cache ) {
-    c_state->cache_len = bytes2cache; // set new cache length
-    memcpy(c_state->cache, (c_input + outLen), bytes2cache); // cache overflow bytes for next call
+JNIEXPORT jint JNICALL Java_com_keepassdroid_crypto_NativeAESCipherSpi_nUpdate(JNIEnv *env, jobject this,
+	jlong state, jbyteArray input, jint inputOffset, jint inputLen, jbyteArray output, jint outputOffset, jint outputSize) {
+  uint32_t outLen;
+  uint8_t *c_input, *c_output;
+  kpd_result_t ret;
+
+  #if defined(KPD_DEBUG)
+  __android_log_print(ANDROID_LOG_INFO, "kpd_jni.c/nUpdate", "entry: inputLen=%d, outputSize=%d", inputLen, outputSize);
+  #endif
+
+  // step 1: first, some housecleaning
+  if( !inputLen || outputOffset < 0 || !input || !output ) {
+    (*env)->ThrowNew(env, bad_arg, "nUpdate: called with 1 or more invalid arguments");
+    return -1;
+  }
+  if( check_region(env, input, inputOffset, inputLen) || check_region(env, output, outputOffset, outputSize) )
+    return -1;
+
+  // step 2: work on the java arrays directly, no copies and no exceptions until they are released
+  c_input = (*env)->GetPrimitiveArrayCritical(env, input, NULL);
+  if( c_input == NULL )
+    return -1;
+  if( outputSize > 0 ) {
+    c_output = (*env)->GetPrimitiveArrayCritical(env, output, NULL);
+    if( c_output == NULL ) {
+      (*env)->ReleasePrimitiveArrayCritical(env, input, c_input, JNI_ABORT);
+      return -1;
+    }
+    ret = update_buffers((aes_state *)state, c_input + inputOffset, inputLen, c_output + outputOffset, outputSize, &outLen);
+    (*env)->ReleasePrimitiveArrayCritical(env, output, c_output, 0);
   } else {
-    c_state->cache_len = 0;
+    // short input that only goes into the cache
+    ret = update_state((aes_state *)state, c_input + inputOffset, inputLen, NULL, 0, &outLen);
   }
+  (*env)->ReleasePrimitiveArrayCritical(env, input, c_input, JNI_ABORT);
 
-  free(in);
-  free(out);
+  // step 3: report the result
+  if( ret != KPD_OK ) {
+    throw_result(env, ret);
+    return -1;
+  }
 
   #if defined(KPD_DEBUG)
   __android_log_print(ANDROID_LOG_INFO, "kpd_jni.c/nUpdate", "exit: outLen=%d", outLen);
@@ -254,16 +440,36 @@ JNIEXPORT jint JNICALL Java_com_keepassdroid_crypto_NativeAESCipherSpi_nUpdate(J
   return outLen;
 }
 
-/*
-  outputSize must be at least 32 for encryption since the buffer may contain >= 1 full block
-  outputSize must be at least 16 for decryption
-*/
+JNIEXPORT jint JNICALL Java_com_keepassdroid_crypto_NativeAESCipherSpi_nUpdateDirect(JNIEnv *env, jobject this,
+	jlong state, jobject input, jint inputOffset, jint inputLen, jobject output, jint outputOffset, jint outputSize) {
+  uint32_t outLen;
+  uint8_t *c_input, *c_output;
+  kpd_result_t ret;
+
+  if( !inputLen || inputOffset < 0 || outputOffset < 0 || !input || !output ) {
+    (*env)->ThrowNew(env, bad_arg, "nUpdateDirect: called with 1 or more invalid arguments");
+    return -1;
+  }
+  c_input = (*env)->GetDirectBufferAddress(env, input);
+  c_output = (*env)->GetDirectBufferAddress(env, output);
+  if( c_input == NULL || c_output == NULL ) {
+    (*env)->ThrowNew(env, bad_arg, "nUpdateDirect: buffers must be direct");
+    return -1;
+  }
+
+  ret = update_buffers((aes_state *)state, c_input + inputOffset, inputLen, c_output + outputOffset, outputSize, &outLen);
+  if( ret != KPD_OK ) {
+    throw_result(env, ret);
+    return -1;
+  }
+  return outLen;
+}
+
 JNIEXPORT jint JNICALL Java_com_keepassdroid_crypto_NativeAESCipherSpi_nFinal(JNIEnv *env, jobject this,
 	jlong state, jboolean doPadding, jbyteArray output, jint outputOffset, jint outputSize) {
-  int i;
-  uint32_t padValue, paddedCacheLen, j;
-  uint8_t final_output[CACHE_SIZE] __attribute__ ((aligned (16)));
-  aes_state *c_state;
+  uint32_t outLen;
+  uint8_t final_output[CACHE_SIZE];
+  kpd_result_t ret;
 
   #if defined(KPD_DEBUG)
   __android_log_print(ANDROID_LOG_INFO, "kpd_jni.c/nFinal", "entry: outputOffset=%d, outputSize=%d", outputOffset, outputSize);
@@ -273,74 +479,98 @@ JNIEXPORT jint JNICALL Java_com_keepassdroid_crypto_NativeAESCipherSpi_nFinal(JN
     (*env)->ThrowNew(env, bad_arg, "Invalid argument(s) passed to nFinal");
     return -1;
   }
-  c_state = (aes_state *)state;
-  if( c_state->direction == FINALIZED ) {
-    (*env)->ThrowNew(env, bad_arg, "This state has already been finalized");
+  if( check_region(env, output, outputOffset, outputSize) )
     return -1;
-  }
 
-  // allow fetching of remaining bytes from cache
-  if( !doPadding ) {
-    (*env)->SetByteArrayRegion(env, output, outputOffset, c_state->cache_len, (jbyte *)c_state->cache);
-    c_state->direction = FINALIZED;
-    return c_state->cache_len;
+  // the final output is at most two blocks, so a stack buffer is cheaper than pinning the array
+  ret = final_state((aes_state *)state, doPadding, final_output, outputSize < CACHE_SIZE ? outputSize : CACHE_SIZE, &outLen);
+  if( ret != KPD_OK ) {
+    throw_result(env, ret);
+    return -1;
   }
+  (*env)->SetByteArrayRegion(env, output, outputOffset, outLen, (jbyte *)final_output);
+  memset(final_output, 0, sizeof(final_output));
 
   #if defined(KPD_DEBUG)
-  __android_log_print(ANDROID_LOG_INFO, "kpd_jni.c/nFinal", "crypto operation starts");
+  __android_log_print(ANDROID_LOG_INFO, "kpd_jni.c/nFinal", "operation completed, returning %d bytes", outLen);
   #endif
+  return outLen;
+}
 
-  if( c_state->direction == ENCRYPTION ) {
-    if( c_state->cache_len >= 16 ) {
-      paddedCacheLen = 32;
-    } else {
-      paddedCacheLen = 16;
-    }
-    if( outputSize < (jint)paddedCacheLen ) {
-      (*env)->ThrowNew(env, short_buf, "Insufficient space in output buffer");
-      return -1;
-    }
-    padValue = paddedCacheLen - c_state->cache_len;
-    if(!padValue) padValue = 16;
-    memset(c_state->cache + c_state->cache_len, padValue, padValue);
-    if( aes_cbc_encrypt(c_state->cache, final_output, paddedCacheLen, c_state->iv, ENC_CTX(c_state)) != EXIT_SUCCESS ) {
-      (*env)->ThrowNew(env, bad_arg, "Failed to encrypt the final data block(s)"); // FIXME: get a better exception class for this...
-      return -1;
-    }
-    (*env)->SetByteArrayRegion(env, output, outputOffset, paddedCacheLen, (jbyte *)final_output);
-    c_state->direction = FINALIZED;
-    #if defined(KPD_DEBUG)
-    __android_log_print(ANDROID_LOG_INFO, "kpd_jni.c/nFinal", "encryption operation completed, returning %d bytes", paddedCacheLen);
-    #endif
-    return paddedCacheLen;
-  } else { // DECRYPTION
-    paddedCacheLen = c_state->cache_len;
-    if( outputSize < (jint)paddedCacheLen ) {
-      (*env)->ThrowNew(env, short_buf, "Insufficient space in output buffer");
-      return -1;
-    }
-    if( paddedCacheLen != 16 ) {
-      (*env)->ThrowNew(env, bad_padding, "Incomplete final block in cache for decryption state");
-      return -1;
-    }
-    if( aes_cbc_decrypt(c_state->cache, final_output, paddedCacheLen, c_state->iv, DEC_CTX(c_state)) != EXIT_SUCCESS ) {
-      (*env)->ThrowNew(env, bad_arg, "Failed to decrypt the final data block(s)"); // FIXME: get a better exception class for this...
-      return -1;
-    }
-    padValue = final_output[paddedCacheLen-1];
-    for(i = (paddedCacheLen-1), j = 0; final_output[i] == padValue && i >= 0; i--, j++);
-    if( padValue != j ) {
-      (*env)->ThrowNew(env, bad_padding, "Failed to verify padding during decryption");
-      return -1;
+JNIEXPORT jint JNICALL Java_com_keepassdroid_crypto_NativeAESCipherSpi_nFinalDirect(JNIEnv *env, jobject this,
+	jlong state, jboolean doPadding, jobject output, jint outputOffset, jint outputSize) {
+  uint32_t outLen;
+  uint8_t *c_output;
+  kpd_result_t ret;
+
+  if( !output || outputOffset < 0 ) {
+    (*env)->ThrowNew(env, bad_arg, "Invalid argument(s) passed to nFinalDirect");
+    return -1;
+  }
+  c_output = (*env)->GetDirectBufferAddress(env, output);
+  if( c_output == NULL ) {
+    (*env)->ThrowNew(env, bad_arg, "nFinalDirect: buffer must be direct");
+    return -1;
+  }
+
+  ret = final_state((aes_state *)state, doPadding, c_output + outputOffset, outputSize, &outLen);
+  if( ret != KPD_OK ) {
+    throw_result(env, ret);
+    return -1;
+  }
+  return outLen;
+}
+
+/*
+  One shot update + final that returns an array of exactly the right size.
+  The result is put together in native memory first, since the size after
+  removing the padding is only known at the end.
+*/
+JNIEXPORT jbyteArray JNICALL Java_com_keepassdroid_crypto_NativeAESCipherSpi_nDoFinal(JNIEnv *env, jobject this,
+	jlong state, jboolean doPadding, jbyteArray input, jint inputOffset, jint inputLen) {
+  aes_state *c_state = (aes_state *)state;
+  uint32_t maxLen, updateLen = 0, finalLen = 0;
+  uint8_t *buf, *c_input;
+  jbyteArray result = NULL;
+  kpd_result_t ret = KPD_OK;
+
+  if( input != NULL && inputLen > 0 && check_region(env, input, inputOffset, inputLen) )
+    return NULL;
+  if( c_state->direction == FINALIZED ) {
+    throw_result(env, KPD_FINALIZED);
+    return NULL;
+  }
+
+  maxLen = (input != NULL && inputLen > 0 ? inputLen : 0) + c_state->cache_len + AES_BLOCK_SIZE;
+  buf = malloc(maxLen);
+  if( buf == NULL ) {
+    throw_result(env, KPD_NO_MEMORY);
+    return NULL;
+  }
+
+  if( input != NULL && inputLen > 0 ) {
+    c_input = (*env)->GetPrimitiveArrayCritical(env, input, NULL);
+    if( c_input == NULL ) {
+      free(buf);
+      return NULL;
     }
-    j = 16 - j;
-    (*env)->SetByteArrayRegion(env, output, outputOffset, j, (jbyte *)final_output);
-    c_state->direction = FINALIZED;
-    #if defined(KPD_DEBUG)
-    __android_log_print(ANDROID_LOG_INFO, "kpd_jni.c/nFinal", "decryption operation completed, returning %d bytes", j);
-    #endif
-    return j;
+    ret = update_state(c_state, c_input + inputOffset, inputLen, buf, maxLen, &updateLen);
+    (*env)->ReleasePrimitiveArrayCritical(env, input, c_input, JNI_ABORT);
+  }
+  if( ret == KPD_OK )
+    ret = final_state(c_state, doPadding, buf + updateLen, maxLen - updateLen, &finalLen);
+
+  if( ret != KPD_OK ) {
+    throw_result(env, ret);
+  } else {
+    result = (*env)->NewByteArray(env, updateLen + finalLen);
+    if( result != NULL )
+      (*env)->SetByteArrayRegion(env, result, 0, updateLen + finalLen, (jbyte *)buf);
   }
+
+  memset(buf, 0, maxLen);
+  free(buf);
+  return result;
 }
 
 JNIEXPORT jint JNICALL Java_com_keepassdroid_crypto_NativeAESCipherSpi_nGetCacheSize(JNIEnv* env, jobject this, jlong state) {
@@ -0,0 +1,98 @@
+/*
+ * This file is part of Keepass2Android, Copyright 2025 Philipp Crocoll.
+ *
+ *   Keepass2Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Keepass2Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Keepass2Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.keepassdroid.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.crypto.engines.Salsa20Engine;
+import org.bouncycastle.crypto.engines.TwofishEngine;
+import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Raw throughput of the bundled bouncycastle engines over 1 MiB */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CipherEngineBenchmark {
+
+	private static final int DATA_SIZE = 1024 * 1024;
+
+	private final byte[] input = new byte[DATA_SIZE];
+	private final byte[] output = new byte[DATA_SIZE];
+
+	private CBCBlockCipher twofishEncrypt;
+	private CBCBlockCipher twofishDecrypt;
+	private Salsa20Engine salsa20;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(DATA_SIZE);
+		byte[] key = new byte[32];
+		byte[] iv = new byte[16];
+		byte[] nonce = new byte[8];
+		random.nextBytes(input);
+		random.nextBytes(key);
+		random.nextBytes(iv);
+		random.nextBytes(nonce);
+
+		twofishEncrypt = new CBCBlockCipher(new TwofishEngine());
+		twofishEncrypt.init(true, new ParametersWithIV(new KeyParameter(key), iv));
+		twofishDecrypt = new CBCBlockCipher(new TwofishEngine());
+		twofishDecrypt.init(false, new ParametersWithIV(new KeyParameter(key), iv));
+
+		salsa20 = new Salsa20Engine();
+		salsa20.init(true, new ParametersWithIV(new KeyParameter(key), nonce));
+	}
+
+	@Benchmark
+	public byte[] twofishCbcEncrypt() {
+		for (int i = 0; i < DATA_SIZE; i += 16) {
+			twofishEncrypt.processBlock(input, i, output, i);
+		}
+		return output;
+	}
+
+	@Benchmark
+	public byte[] twofishCbcDecrypt() {
+		for (int i = 0; i < DATA_SIZE; i += 16) {
+			twofishDecrypt.processBlock(input, i, output, i);
+		}
+		return output;
+	}
+
+	@Benchmark
+	public byte[] salsa20() {
+		salsa20.processBytes(input, 0, DATA_SIZE, output, 0);
+		return output;
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * This file is part of Keepass2Android, Copyright 2025 Philipp Crocoll.
+ *
+ *   Keepass2Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Keepass2Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Keepass2Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.keepassdroid.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.keepassdroid.crypto.finalkey.AndroidFinalKey;
+import com.keepassdroid.crypto.finalkey.ParallelFinalKey;
+
+/** Master key transformation with the pure java backends */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FinalKeyBenchmark {
+
+	@Param({ "6000", "100000" })
+	public int rounds;
+
+	private final AndroidFinalKey androidFinalKey = new AndroidFinalKey();
+	private final ParallelFinalKey parallelFinalKey = new ParallelFinalKey();
+
+	private byte[] seed = new byte[32];
+	private byte[] key = new byte[32];
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(rounds);
+		random.nextBytes(seed);
+		random.nextBytes(key);
+	}
+
+	@Benchmark
+	public byte[] androidFinalKey() throws Exception {
+		return androidFinalKey.transformMasterKey(seed, key, rounds);
+	}
+
+	@Benchmark
+	public byte[] parallelFinalKey() throws Exception {
+		return parallelFinalKey.transformMasterKey(seed, key, rounds);
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * This file is part of Keepass2Android, Copyright 2025 Philipp Crocoll.
+ *
+ *   Keepass2Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Keepass2Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Keepass2Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.keepassdroid.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.keepassdroid.stream.HashedBlockInputStream;
+import com.keepassdroid.stream.HashedBlockOutputStream;
+
+/** Reading and verifying a hashed block stream, as used for large payloads */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashedBlockStreamBenchmark {
+
+	/** Size of the payload in KiB */
+	@Param({ "64", "16384" })
+	public int payloadKb;
+
+	/** Block size used when writing, 0 for the default of HashedBlockOutputStream */
+	@Param({ "0", "4096" })
+	public int blockSize;
+
+	/** Blocks verified ahead on a worker thread, 0 to verify on the reading thread */
+	@Param({ "0", "4" })
+	public int readAhead;
+
+	private byte[] stream;
+	private ExecutorService executor;
+	private final byte[] readBuffer = new byte[8192];
+
+	@Setup
+	public void setUp() throws IOException {
+		byte[] payload = new byte[payloadKb * 1024];
+		new Random(payloadKb).nextBytes(payload);
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(payload.length + payload.length / 16 + 64);
+		HashedBlockOutputStream hos = new HashedBlockOutputStream(bos, blockSize);
+		hos.write(payload);
+		hos.close();
+		stream = bos.toByteArray();
+
+		executor = Executors.newSingleThreadExecutor();
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Benchmark
+	public long read() throws IOException {
+		InputStream is = new HashedBlockInputStream(new ByteArrayInputStream(stream), executor, readAhead);
+		long total = 0;
+		int read;
+		while ((read = is.read(readBuffer, 0, readBuffer.length)) > 0) {
+			total += read;
+		}
+		is.close();
+		return total;
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * This file is part of Keepass2Android, Copyright 2025 Philipp Crocoll.
+ *
+ *   Keepass2Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Keepass2Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Keepass2Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.keepassdroid.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.keepassdroid.database.PwDatabaseV3;
+import com.keepassdroid.database.PwEncryptionAlgorithm;
+import com.keepassdroid.database.PwEntryV3;
+import com.keepassdroid.database.PwGroupIdV3;
+import com.keepassdroid.database.PwGroupV3;
+import com.keepassdroid.database.exception.InvalidKeyFileException;
+import com.keepassdroid.database.exception.PwDbOutputException;
+import com.keepassdroid.database.save.PwDbV3Output;
+
+/**
+ * Builds synthetic KDB databases for the benchmarks. The content only depends
+ * on the arguments, so runs on different machines work on comparable files.
+ */
+public class KdbGenerator {
+
+	public static final String PASSWORD = "benchmark";
+
+	/** Sizes written by {@link #main(String[])} */
+	public static final int[] SIZES = { 100, 10000, 100000 };
+
+	/** Keep the key transformation cheap, it has its own benchmark */
+	private static final int KEY_ROUNDS = 1;
+
+	private static final int ENTRIES_PER_GROUP = 50;
+	private static final int TOP_LEVEL_GROUPS = 8;
+
+	/** With attachments every tenth entry carries one of this size */
+	private static final int ATTACHMENT_INTERVAL = 10;
+	private static final int ATTACHMENT_SIZE = 4096;
+
+	public static PwDatabaseV3 createDatabase(int entries, boolean attachments) {
+		return createDatabase(entries, attachments, PwEncryptionAlgorithm.Rjindal);
+	}
+
+	public static PwDatabaseV3 createDatabase(int entries, boolean attachments, PwEncryptionAlgorithm algorithm) {
+		Random random = new Random(entries);
+
+		PwDatabaseV3 db = new PwDatabaseV3();
+		db.algorithm = algorithm;
+		db.numKeyEncRounds = KEY_ROUNDS;
+		db.name = "Synthetic " + entries;
+		db.constructTree(null);
+
+		int groupCount = Math.max(1, entries / ENTRIES_PER_GROUP);
+		List<PwGroupV3> groups = new ArrayList<PwGroupV3>(groupCount);
+		for (int i = 0; i < groupCount; i++) {
+			PwGroupV3 group = new PwGroupV3();
+			group.initNewGroup("Group " + i, new PwGroupIdV3(i + 1));
+			group.icon = db.iconFactory.getIcon(i % 10);
+
+			// A few top level groups, everything else nested below a random earlier one
+			PwGroupV3 parent = i < TOP_LEVEL_GROUPS ? db.rootGroup : groups.get(random.nextInt(groups.size()));
+			db.addGroupTo(group, parent);
+			groups.add(group);
+		}
+
+		for (int i = 0; i < entries; i++) {
+			PwGroupV3 group = groups.get(random.nextInt(groups.size()));
+			PwEntryV3 entry = new PwEntryV3(group);
+			entry.title = "Entry " + i;
+			entry.username = "user" + i + "@example.com";
+			entry.url = "https://host" + (i % 997) + ".example.com/login";
+			entry.additional = "Notes for entry " + i + "\nsecond line " + random.nextLong();
+			entry.setPassword(Long.toString(random.nextLong(), 36), db);
+
+			if (attachments && i % ATTACHMENT_INTERVAL == 0) {
+				byte[] data = new byte[ATTACHMENT_SIZE];
+				random.nextBytes(data);
+				entry.binaryDesc = "attachment" + i + ".bin";
+				entry.setBinaryData(data, 0, data.length);
+			}
+
+			db.addEntryTo(entry, group);
+		}
+
+		return db;
+	}
+
+	/** Serialized database, protected with {@link #PASSWORD} */
+	public static byte[] createFile(int entries, boolean attachments) throws IOException, InvalidKeyFileException, PwDbOutputException {
+		return createFile(createDatabase(entries, attachments));
+	}
+
+	public static byte[] createFile(PwDatabaseV3 db) throws IOException, InvalidKeyFileException, PwDbOutputException {
+		db.setMasterKey(PASSWORD, null);
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		new PwDbV3Output(db, bos).output();
+		return bos.toByteArray();
+	}
+
+	/** Writes every size with and without attachments to the directory given as first argument */
+	public static void main(String[] args) throws Exception {
+		File dir = new File(args.length > 0 ? args[0] : ".");
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create " + dir);
+		}
+
+		for (int entries : SIZES) {
+			for (boolean attachments : new boolean[] { false, true }) {
+				File file = new File(dir, "synthetic-" + entries + (attachments ? "-attachments" : "") + ".kdb");
+				FileOutputStream fos = new FileOutputStream(file);
+				try {
+					fos.write(createFile(entries, attachments));
+				} finally {
+					fos.close();
+				}
+				System.out.println(file + ": " + file.length() + " bytes");
+			}
+		}
+	}
+}
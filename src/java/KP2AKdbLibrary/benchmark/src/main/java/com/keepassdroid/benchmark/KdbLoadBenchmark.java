@@ -0,0 +1,69 @@
+/*
+ * This file is part of Keepass2Android, Copyright 2025 Philipp Crocoll.
+ *
+ *   Keepass2Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Keepass2Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Keepass2Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.keepassdroid.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.keepassdroid.database.PwDatabaseV3;
+import com.keepassdroid.database.load.ImporterV3;
+
+/** Decrypting and parsing a whole database from memory */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class KdbLoadBenchmark {
+
+	@Param({ "100", "10000", "100000" })
+	public int entries;
+
+	@Param({ "false", "true" })
+	public boolean attachments;
+
+	private byte[] file;
+
+	@Setup
+	public void setUp() throws Exception {
+		file = KdbGenerator.createFile(entries, attachments);
+	}
+
+	@Benchmark
+	public PwDatabaseV3 openDatabase() throws Exception {
+		return new ImporterV3().openDatabase(new ByteArrayInputStream(file), KdbGenerator.PASSWORD, null);
+	}
+
+	@Benchmark
+	public PwDatabaseV3 openDatabaseStreaming() throws Exception {
+		return new ImporterV3().openDatabaseStreaming(new ByteArrayInputStream(file), KdbGenerator.PASSWORD, null);
+	}
+}
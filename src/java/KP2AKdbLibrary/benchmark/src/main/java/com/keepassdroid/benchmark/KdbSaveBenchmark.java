@@ -0,0 +1,89 @@
+/*
+ * This file is part of Keepass2Android, Copyright 2025 Philipp Crocoll.
+ *
+ *   Keepass2Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Keepass2Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Keepass2Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.keepassdroid.benchmark;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.keepassdroid.database.PwDatabaseV3;
+import com.keepassdroid.database.save.PwDbV3Output;
+
+/** Serializing and encrypting a whole database */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class KdbSaveBenchmark {
+
+	@Param({ "100", "10000", "100000" })
+	public int entries;
+
+	@Param({ "false", "true" })
+	public boolean attachments;
+
+	private PwDatabaseV3 db;
+
+	@Setup
+	public void setUp() throws Exception {
+		db = KdbGenerator.createDatabase(entries, attachments);
+		db.setMasterKey(KdbGenerator.PASSWORD, null);
+	}
+
+	@Benchmark
+	public long output() throws Exception {
+		CountingOutputStream os = new CountingOutputStream();
+		new PwDbV3Output(db, os).output();
+		return os.count;
+	}
+
+	@Benchmark
+	public long outputBuffered() throws Exception {
+		CountingOutputStream os = new CountingOutputStream();
+		new PwDbV3Output(db, os).outputBuffered();
+		return os.count;
+	}
+
+	/** Discards the data, but keeps the byte count so the write cannot be optimized away */
+	private static final class CountingOutputStream extends OutputStream {
+		long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,7 @@
+package android.app;
+
+/** Minimal stand-in for the android class, so the library runs on a plain JVM. */
+public class ProgressDialog {
+	public void setMessage(CharSequence message) {
+	}
+}
@@ -0,0 +1,6 @@
+package android.content;
+
+/** Minimal stand-in for the android class, so the library runs on a plain JVM. */
+public abstract class Context {
+	public abstract String getString(int resId);
+}
@@ -0,0 +1,6 @@
+package android.os;
+
+/** Minimal stand-in for the android class, so the library runs on a plain JVM. */
+public final class Build {
+	public static final String MODEL = "jvm";
+}
@@ -0,0 +1,9 @@
+package android.os;
+
+/** Minimal stand-in for the android class, so the library runs on a plain JVM. */
+public class Handler {
+	public final boolean post(Runnable r) {
+		r.run();
+		return true;
+	}
+}
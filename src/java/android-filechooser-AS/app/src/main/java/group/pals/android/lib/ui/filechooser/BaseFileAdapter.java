@@ -19,12 +19,14 @@ import group.pals.android.lib.ui.filechooser.utils.ui.LoadingDialog;
 import group.pals.android.lib.ui.filechooser.utils.ui.Ui;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
 import androidx.cursoradapter.widget.ResourceCursorAdapter;
 import android.util.Log;
+import android.util.LruCache;
 import android.util.SparseArray;
 import android.view.MotionEvent;
 import android.view.View;
@@ -47,6 +49,12 @@ public class BaseFileAdapter extends ResourceCursorAdapter {
      */
     private static final String CLASSNAME = BaseFileAdapter.class.getName();
 
+    /**
+     * Maximum number of file info texts (size and modification time) kept
+     * formatted.
+     */
+    private static final int FILE_INFO_CACHE_SIZE = 512;
+
     /**
      * Listener for building context menu editor.
      * 
@@ -82,6 +90,13 @@ public class BaseFileAdapter extends ResourceCursorAdapter {
     private final Integer[] mAdvancedSelectionOptions;
     private boolean mMultiSelection;
     private OnBuildOptionsMenuListener mOnBuildOptionsMenuListener;
+    private Columns mColumns;
+
+    /**
+     * Formatted file info texts, by cursor position.
+     */
+    private final LruCache<Integer, String> mFileInfoCache = new LruCache<Integer, String>(
+            FILE_INFO_CACHE_SIZE);
 
     public BaseFileAdapter(Context context, int filterMode,
             boolean multiSelection) {
@@ -121,6 +136,33 @@ public class BaseFileAdapter extends ResourceCursorAdapter {
         return count > 0 ? count - 1 : 0;
     }// getCount()
 
+    /**
+     * Indices of the columns, resolved once per cursor.
+     */
+    private static final class Columns {
+
+        final int mId;
+        final int mUri;
+        final int mName;
+        final int mCanRead;
+        final int mSize;
+        final int mType;
+        final int mModificationTime;
+        final int mIconId;
+
+        Columns(Cursor cursor) {
+            mId = cursor.getColumnIndex(BaseFile._ID);
+            mUri = cursor.getColumnIndex(BaseFile.COLUMN_URI);
+            mName = cursor.getColumnIndex(BaseFile.COLUMN_NAME);
+            mCanRead = cursor.getColumnIndex(BaseFile.COLUMN_CAN_READ);
+            mSize = cursor.getColumnIndex(BaseFile.COLUMN_SIZE);
+            mType = cursor.getColumnIndex(BaseFile.COLUMN_TYPE);
+            mModificationTime = cursor
+                    .getColumnIndex(BaseFile.COLUMN_MODIFICATION_TIME);
+            mIconId = cursor.getColumnIndex(BaseFile.COLUMN_ICON_ID);
+        }// Columns()
+    }// Columns
+
     /**
      * The "view holder"
      * 
@@ -133,6 +175,11 @@ public class BaseFileAdapter extends ResourceCursorAdapter {
         TextView mTxtFileName;
         TextView mTxtFileInfo;
         CheckBox mCheckboxSelection;
+        Boolean mSingleLine;
+        /**
+         * The cursor position of the item currently shown.
+         */
+        int mPosition;
     }// Bag
 
     private static class BagInfo {
@@ -143,7 +190,9 @@ public class BaseFileAdapter extends ResourceCursorAdapter {
     }// BagChildInfo
 
     /**
-     * Map of child IDs to {@link BagChildInfo}.
+     * Map of child IDs to {@link BagChildInfo}. Only items which are checked
+     * or marked as deleted are kept, so its size is bounded by the selection,
+     * not by the number of items shown.
      */
     private final SparseArray<BagInfo> mSelectedChildrenMap = new SparseArray<BagInfo>();
 
@@ -164,19 +213,34 @@ public class BaseFileAdapter extends ResourceCursorAdapter {
             bag.mCheckboxSelection = (CheckBox) view
                     .findViewById(R.id.afc_checkbox_selection);
 
+            /*
+             * Listeners are shared by all items, they find the item by the
+             * position kept in the bag.
+             */
+            bag.mImageIcon.setTag(bag);
+            bag.mImageIcon.setOnTouchListener(mImageIconOnTouchListener);
+            bag.mCheckboxSelection.setTag(bag);
+            bag.mCheckboxSelection
+                    .setOnLongClickListener(mCheckboxSelectionOnLongClickListener);
+
             view.setTag(bag);
         }
 
-        final int id = cursor.getInt(cursor.getColumnIndex(BaseFile._ID));
-        final Uri uri = BaseFileProviderUtils.getUri(cursor);
+        final Columns columns = mColumns;
+        final int position = cursor.getPosition();
+        bag.mPosition = position;
+
+        final int id = cursor.getInt(columns.mId);
+        final int type = cursor.getInt(columns.mType);
+        final boolean isDirectory = type == BaseFile.FILE_TYPE_DIRECTORY;
 
         final BagInfo bagInfo;
-        if (mSelectedChildrenMap.get(id) == null) {
-            bagInfo = new BagInfo();
-            bagInfo.mUri = uri;
-            mSelectedChildrenMap.put(id, bagInfo);
-        } else
+        synchronized (mSelectedChildrenMap) {
             bagInfo = mSelectedChildrenMap.get(id);
+        }
+        final boolean checked = bagInfo != null && bagInfo.mChecked;
+        final boolean markedAsDeleted = bagInfo != null
+                && bagInfo.mMarkedAsDeleted;
 
         /*
          * Update views.
@@ -185,77 +249,127 @@ public class BaseFileAdapter extends ResourceCursorAdapter {
         /*
          * Use single line for grid view, multiline for list view
          */
-        bag.mTxtFileName.setSingleLine(view.getParent() instanceof GridView);
+        final boolean singleLine = view.getParent() instanceof GridView;
+        if (bag.mSingleLine == null || bag.mSingleLine != singleLine) {
+            bag.mTxtFileName.setSingleLine(singleLine);
+            bag.mSingleLine = singleLine;
+        }
 
         /*
          * File icon.
          */
-        bag.mImageLockedSymbol.setVisibility(cursor.getInt(cursor
-                .getColumnIndex(BaseFile.COLUMN_CAN_READ)) > 0 ? View.GONE
-                : View.VISIBLE);
-        bag.mImageIcon.setImageResource(cursor.getInt(cursor
-                .getColumnIndex(BaseFile.COLUMN_ICON_ID)));
-        bag.mImageIcon.setOnTouchListener(mImageIconOnTouchListener);
-        bag.mImageIcon.setOnClickListener(BaseFileProviderUtils
-                .isDirectory(cursor) ? newImageIconOnClickListener(cursor
-                .getPosition()) : null);
+        bag.mImageLockedSymbol
+                .setVisibility(cursor.getInt(columns.mCanRead) > 0 ? View.GONE
+                        : View.VISIBLE);
+        bag.mImageIcon.setImageResource(cursor.getInt(columns.mIconId));
+        bag.mImageIcon
+                .setOnClickListener(isDirectory ? mImageIconOnClickListener
+                        : null);
 
         /*
          * Filename.
          */
-        bag.mTxtFileName.setText(BaseFileProviderUtils.getFileName(cursor));
-        Ui.strikeOutText(bag.mTxtFileName, bagInfo.mMarkedAsDeleted);
+        bag.mTxtFileName.setText(cursor.getString(columns.mName));
+        Ui.strikeOutText(bag.mTxtFileName, markedAsDeleted);
 
         /*
          * File info.
          */
-        String time = DateUtils.formatDate(context, cursor.getLong(cursor
-                .getColumnIndex(BaseFile.COLUMN_MODIFICATION_TIME)),
-                mFileTimeDisplay);
-        if (BaseFileProviderUtils.isFile(cursor))
-            bag.mTxtFileInfo.setText(String.format("%s, %s", Converter
-                    .sizeToStr(cursor.getLong(cursor
-                            .getColumnIndex(BaseFile.COLUMN_SIZE))), time));
-        else
-            bag.mTxtFileInfo.setText(time);
+        String fileInfo = mFileInfoCache.get(position);
+        if (fileInfo == null) {
+            fileInfo = DateUtils.formatDate(context,
+                    cursor.getLong(columns.mModificationTime),
+                    mFileTimeDisplay);
+            if (type == BaseFile.FILE_TYPE_FILE)
+                fileInfo = Converter.sizeToStr(cursor.getLong(columns.mSize))
+                        + ", " + fileInfo;
+            mFileInfoCache.put(position, fileInfo);
+        }
+        bag.mTxtFileInfo.setText(fileInfo);
 
         /*
          * Check box.
          */
         if (mMultiSelection) {
-            if (mFilterMode == BaseFile.FILTER_FILES_ONLY
-                    && BaseFileProviderUtils.isDirectory(cursor)) {
+            if (mFilterMode == BaseFile.FILTER_FILES_ONLY && isDirectory) {
                 bag.mCheckboxSelection.setVisibility(View.GONE);
             } else {
                 bag.mCheckboxSelection.setVisibility(View.VISIBLE);
 
                 bag.mCheckboxSelection.setOnCheckedChangeListener(null);
-                bag.mCheckboxSelection.setChecked(bagInfo.mChecked);
+                bag.mCheckboxSelection.setChecked(checked);
                 bag.mCheckboxSelection
-                        .setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
-
-                            @Override
-                            public void onCheckedChanged(
-                                    CompoundButton buttonView, boolean isChecked) {
-                                bagInfo.mChecked = isChecked;
-                            }// onCheckedChanged()
-                        });
-
-                bag.mCheckboxSelection
-                        .setOnLongClickListener(mCheckboxSelectionOnLongClickListener);
+                        .setOnCheckedChangeListener(mCheckboxSelectionOnCheckedChangeListener);
             }
         } else
             bag.mCheckboxSelection.setVisibility(View.GONE);
     }// bindView()
 
+    @Override
+    public Cursor swapCursor(Cursor newCursor) {
+        mColumns = newCursor != null ? new Columns(newCursor) : null;
+        mFileInfoCache.evictAll();
+        return super.swapCursor(newCursor);
+    }// swapCursor()
+
     @Override
     public void changeCursor(Cursor cursor) {
+        changeCursor(cursor, false);
+    }// changeCursor()
+
+    /**
+     * Changes the cursor.
+     * 
+     * @param cursor
+     *            the new cursor.
+     * @param keepSelection
+     *            {@code true} if {@code cursor} extends the current one, e.g.
+     *            with the next page of the same directory. Selected items are
+     *            kept then.
+     */
+    public void changeCursor(Cursor cursor, boolean keepSelection) {
         super.changeCursor(cursor);
+        if (keepSelection)
+            return;
         synchronized (mSelectedChildrenMap) {
             mSelectedChildrenMap.clear();
         }
     }// changeCursor()
 
+    /**
+     * Changes the cursor to a reloaded one of the same directory, after some
+     * of its files were created, deleted or modified. Rows may have moved, so
+     * selected items are kept by their URIs.
+     * 
+     * @param cursor
+     *            the new cursor.
+     */
+    public void changeCursorAfterContentChange(Cursor cursor) {
+        synchronized (mSelectedChildrenMap) {
+            HashMap<Uri, BagInfo> selectedItems = new HashMap<Uri, BagInfo>();
+            for (int i = 0; i < mSelectedChildrenMap.size(); i++) {
+                BagInfo b = mSelectedChildrenMap.valueAt(i);
+                if (b.mChecked || b.mMarkedAsDeleted)
+                    selectedItems.put(b.mUri, b);
+            }
+            mSelectedChildrenMap.clear();
+
+            if (cursor != null && !selectedItems.isEmpty()) {
+                final Columns columns = new Columns(cursor);
+                for (int i = 0; i < cursor.getCount() - 1
+                        && !selectedItems.isEmpty(); i++) {
+                    cursor.moveToPosition(i);
+                    BagInfo b = selectedItems.remove(Uri.parse(cursor
+                            .getString(columns.mUri)));
+                    if (b != null)
+                        mSelectedChildrenMap.put(cursor.getInt(columns.mId), b);
+                }
+            }
+        }
+
+        super.changeCursor(cursor);
+    }// changeCursorAfterContentChange()
+
     /*
      * UTILITIES.
      */
@@ -308,24 +422,13 @@ public class BaseFileAdapter extends ResourceCursorAdapter {
         for (int i = 0; i < count; i++) {
             Cursor cursor = (Cursor) getItem(i);
 
-            int itemFileType = cursor.getInt(cursor
-                    .getColumnIndex(BaseFile.COLUMN_TYPE));
+            int itemFileType = cursor.getInt(mColumns.mType);
             if ((mFilterMode == BaseFile.FILTER_DIRECTORIES_ONLY && itemFileType == BaseFile.FILE_TYPE_FILE)
                     || (mFilterMode == BaseFile.FILTER_FILES_ONLY && itemFileType == BaseFile.FILE_TYPE_DIRECTORY))
                 continue;
 
-            final int id = cursor.getInt(cursor.getColumnIndex(BaseFile._ID));
-            BagInfo b = mSelectedChildrenMap.get(id);
-            if (b == null) {
-                b = new BagInfo();
-                b.mUri = BaseFileProviderUtils.getUri(cursor);
-                mSelectedChildrenMap.put(id, b);
-            }
-
-            if (fileType >= 0 && itemFileType != fileType)
-                b.mChecked = false;
-            else if (b.mChecked != selected)
-                b.mChecked = selected;
+            setChecked(cursor, (fileType < 0 || itemFileType == fileType)
+                    && selected);
         }// for i
     }// asyncSelectAll()
 
@@ -352,22 +455,41 @@ public class BaseFileAdapter extends ResourceCursorAdapter {
         for (int i = 0; i < count; i++) {
             Cursor cursor = (Cursor) getItem(i);
 
-            int fileType = cursor.getInt(cursor
-                    .getColumnIndex(BaseFile.COLUMN_TYPE));
+            int fileType = cursor.getInt(mColumns.mType);
             if ((mFilterMode == BaseFile.FILTER_DIRECTORIES_ONLY && fileType == BaseFile.FILE_TYPE_FILE)
                     || (mFilterMode == BaseFile.FILTER_FILES_ONLY && fileType == BaseFile.FILE_TYPE_DIRECTORY))
                 continue;
 
-            final int id = cursor.getInt(cursor.getColumnIndex(BaseFile._ID));
+            setChecked(cursor, !isSelected(cursor.getInt(mColumns.mId)));
+        }// for i
+    }// asyncInvertSelection()
+
+    /**
+     * Sets the selection state of the item at the current position of
+     * {@code cursor}.
+     * 
+     * @param cursor
+     *            the cursor.
+     * @param checked
+     *            {@code true} or {@code false}.
+     */
+    private void setChecked(Cursor cursor, boolean checked) {
+        final Columns columns = mColumns;
+        final int id = cursor.getInt(columns.mId);
+        synchronized (mSelectedChildrenMap) {
             BagInfo b = mSelectedChildrenMap.get(id);
             if (b == null) {
+                if (!checked)
+                    return;
                 b = new BagInfo();
-                b.mUri = BaseFileProviderUtils.getUri(cursor);
+                b.mUri = Uri.parse(cursor.getString(columns.mUri));
                 mSelectedChildrenMap.put(id, b);
             }
-            b.mChecked = !b.mChecked;
-        }// for i
-    }// asyncInvertSelection()
+            b.mChecked = checked;
+            if (!b.mChecked && !b.mMarkedAsDeleted)
+                mSelectedChildrenMap.remove(id);
+        }
+    }// setChecked()
 
     /**
      * Inverts selection of all items.
@@ -422,8 +544,8 @@ public class BaseFileAdapter extends ResourceCursorAdapter {
     public void markSelectedItemsAsDeleted(boolean deleted) {
         synchronized (mSelectedChildrenMap) {
             for (int i = 0; i < mSelectedChildrenMap.size(); i++)
-                if (mSelectedChildrenMap.get(mSelectedChildrenMap.keyAt(i)).mChecked)
-                    mSelectedChildrenMap.get(mSelectedChildrenMap.keyAt(i)).mMarkedAsDeleted = deleted;
+                if (mSelectedChildrenMap.valueAt(i).mChecked)
+                    mSelectedChildrenMap.valueAt(i).mMarkedAsDeleted = deleted;
         }
 
         notifyDataSetChanged();
@@ -436,16 +558,26 @@ public class BaseFileAdapter extends ResourceCursorAdapter {
      * 
      * @param id
      *            the ID of the item.
+     * @param uri
+     *            the URI of the item.
      * @param deleted
      *            {@code true} or {@code false}.
      */
-    public void markItemAsDeleted(int id, boolean deleted) {
+    public void markItemAsDeleted(int id, Uri uri, boolean deleted) {
         synchronized (mSelectedChildrenMap) {
-            if (mSelectedChildrenMap.get(id) != null) {
-                mSelectedChildrenMap.get(id).mMarkedAsDeleted = deleted;
-                notifyDataSetChanged();
+            BagInfo b = mSelectedChildrenMap.get(id);
+            if (b == null) {
+                if (!deleted)
+                    return;
+                b = new BagInfo();
+                b.mUri = uri;
+                mSelectedChildrenMap.put(id, b);
             }
+            b.mMarkedAsDeleted = deleted;
+            if (!b.mChecked && !b.mMarkedAsDeleted)
+                mSelectedChildrenMap.remove(id);
         }
+        notifyDataSetChanged();
     }// markItemAsDeleted()
 
     /*
@@ -480,24 +612,33 @@ public class BaseFileAdapter extends ResourceCursorAdapter {
     };// mImageIconOnTouchListener
 
     /**
-     * Creates new listener to handle click event of image icon.
-     * 
-     * @param cursorPosition
-     *            the cursor position.
-     * @return the listener.
+     * Handles click event of image icon, for the item at the position kept in
+     * the view's {@link Bag}.
      */
-    private View.OnClickListener newImageIconOnClickListener(
-            final int cursorPosition) {
-        return new View.OnClickListener() {
-
-            @Override
-            public void onClick(View v) {
-                if (getOnBuildOptionsMenuListener() != null)
-                    getOnBuildOptionsMenuListener().onBuildOptionsMenu(v,
-                            (Cursor) getItem(cursorPosition));
-            }// onClick()
-        };
-    }// newImageIconOnClickListener()
+    private final View.OnClickListener mImageIconOnClickListener = new View.OnClickListener() {
+
+        @Override
+        public void onClick(View v) {
+            if (getOnBuildOptionsMenuListener() != null)
+                getOnBuildOptionsMenuListener().onBuildOptionsMenu(v,
+                        (Cursor) getItem(((Bag) v.getTag()).mPosition));
+        }// onClick()
+    };// mImageIconOnClickListener
+
+    /**
+     * Updates the selection of the item at the position kept in the check
+     * box's {@link Bag}.
+     */
+    private final CompoundButton.OnCheckedChangeListener mCheckboxSelectionOnCheckedChangeListener = new CompoundButton.OnCheckedChangeListener() {
+
+        @Override
+        public void onCheckedChanged(CompoundButton buttonView,
+                boolean isChecked) {
+            Cursor cursor = (Cursor) getItem(((Bag) buttonView.getTag()).mPosition);
+            if (cursor != null)
+                setChecked(cursor, isChecked);
+        }// onCheckedChanged()
+    };// mCheckboxSelectionOnCheckedChangeListener
 
     private final View.OnLongClickListener mCheckboxSelectionOnLongClickListener = new View.OnLongClickListener() {
 
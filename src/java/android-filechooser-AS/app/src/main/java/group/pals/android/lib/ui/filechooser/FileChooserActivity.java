@@ -127,8 +127,8 @@ public class FileChooserActivity extends FragmentActivity {
     // ---------------------------------------------------------
 
     /**
-     * Key to hold max file count that's allowed to be listed, default =
-     * {@code 1000}.
+     * Key to hold the number of files which are loaded at once, default =
+     * {@code 1000}. Further files are loaded page by page while scrolling.
      */
     public static final String EXTRA_MAX_FILE_COUNT = CLASSNAME
             + ".max_file_count";
@@ -218,6 +218,22 @@ public class FragmentFiles extends Fragment implements
     private boolean mLoading = false;
     private boolean mNewLoader = true;
 
+    /*
+     * PAGING
+     */
+
+    /**
+     * The directory of the current loader.
+     */
+    private Uri mLoaderPath;
+    /**
+     * Number of files requested from the provider so far. Grows by
+     * {@link #mMaxFileCount} with each page.
+     */
+    private int mLoadedFileCount;
+    private boolean mHasMoreFiles = false;
+    private boolean mLoadingNextPage = false;
+
     /*
      * CONTROLS
      */
@@ -486,57 +502,113 @@ public class FragmentFiles extends Fragment implements
         final Uri path = ((Uri) args.getParcelable(PATH));
         buildAddressBar(path);
 
+        if (BuildConfig.DEBUG)
+            Log.d(CLASSNAME, "onCreateLoader() >> path = " + path);
+
+        mLoaderPath = path;
+        mLoadedFileCount = mMaxFileCount;
+        mLoadingNextPage = false;
+        mHasMoreFiles = false;
+        return new CursorLoader(getActivity(), buildDirectoryContentUri(path,
+                mLoadedFileCount, false), null, null, null, null);
+    }// onCreateLoader()
+
+    /**
+     * Builds the URI to query the content of a directory.
+     * 
+     * @param path
+     *            the directory.
+     * @param limit
+     *            the number of files to load.
+     * @param reuseListing
+     *            see {@link BaseFile#PARAM_REUSE_LISTING}.
+     * @return the URI.
+     */
+    private Uri buildDirectoryContentUri(Uri path, int limit,
+            boolean reuseListing) {
         String positiveRegex = getArguments().getString(
                 FileChooserActivity.EXTRA_POSITIVE_REGEX_FILTER);
         String negativeRegex = getArguments().getString(
                 FileChooserActivity.EXTRA_NEGATIVE_REGEX_FILTER);
 
+        return BaseFile.genContentUriBase(path.getAuthority())
+                .buildUpon()
+                .appendPath(path.getLastPathSegment())
+                .appendQueryParameter(BaseFile.PARAM_TASK_ID,
+                        Integer.toString(mIdLoaderData))
+                .appendQueryParameter(
+                        BaseFile.PARAM_SHOW_HIDDEN_FILES,
+                        Boolean.toString(getArguments()
+                                .getBoolean(
+                                        FileChooserActivity.EXTRA_DISPLAY_HIDDEN_FILES)))
+                .appendQueryParameter(BaseFile.PARAM_FILTER_MODE,
+                        Integer.toString(mFilterMode))
+                .appendQueryParameter(
+                        BaseFile.PARAM_SORT_BY,
+                        Integer.toString(DisplayPrefs
+                                .getSortType(getActivity())))
+                .appendQueryParameter(
+                        BaseFile.PARAM_SORT_ASCENDING,
+                        Boolean.toString(DisplayPrefs
+                                .isSortAscending(getActivity())))
+                .appendQueryParameter(BaseFile.PARAM_LIMIT,
+                        Integer.toString(limit))
+                .appendQueryParameter(BaseFile.PARAM_REUSE_LISTING,
+                        Boolean.toString(reuseListing))
+                .appendQueryParameter(
+                        BaseFile.PARAM_POSITIVE_REGEX_FILTER,
+                        TextUtils.isEmpty(positiveRegex) ? ""
+                                : positiveRegex)
+                .appendQueryParameter(
+                        BaseFile.PARAM_NEGATIVE_REGEX_FILTER,
+                        TextUtils.isEmpty(negativeRegex) ? ""
+                                : negativeRegex).build();
+    }// buildDirectoryContentUri()
+
+    /**
+     * Loads the next page of the current directory. The loader delivers a
+     * cursor which contains the rows loaded so far plus the next page.
+     */
+    private void loadNextPage() {
+        Loader<Cursor> loader = getLoaderManager().getLoader(mIdLoaderData);
+        if (!(loader instanceof CursorLoader) || mLoaderPath == null)
+            return;
+
         if (BuildConfig.DEBUG)
-            Log.d(CLASSNAME, "onCreateLoader() >> path = " + path);
+            Log.d(CLASSNAME, "loadNextPage() >> " + mLoadedFileCount);
 
-        return new CursorLoader(
-                getActivity(),
-                BaseFile.genContentUriBase(path.getAuthority())
-                        .buildUpon()
-                        .appendPath(path.getLastPathSegment())
-                        .appendQueryParameter(BaseFile.PARAM_TASK_ID,
-                                Integer.toString(mIdLoaderData))
-                        .appendQueryParameter(
-                                BaseFile.PARAM_SHOW_HIDDEN_FILES,
-                                Boolean.toString(getArguments()
-                                        .getBoolean(
-                                                FileChooserActivity.EXTRA_DISPLAY_HIDDEN_FILES)))
-                        .appendQueryParameter(BaseFile.PARAM_FILTER_MODE,
-                                Integer.toString(mFilterMode))
-                        .appendQueryParameter(
-                                BaseFile.PARAM_SORT_BY,
-                                Integer.toString(DisplayPrefs
-                                        .getSortType(getActivity())))
-                        .appendQueryParameter(
-                                BaseFile.PARAM_SORT_ASCENDING,
-                                Boolean.toString(DisplayPrefs
-                                        .isSortAscending(getActivity())))
-                        .appendQueryParameter(BaseFile.PARAM_LIMIT,
-                                Integer.toString(mMaxFileCount))
-                        .appendQueryParameter(
-                                BaseFile.PARAM_POSITIVE_REGEX_FILTER,
-                                TextUtils.isEmpty(positiveRegex) ? ""
-                                        : positiveRegex)
-                        .appendQueryParameter(
-                                BaseFile.PARAM_NEGATIVE_REGEX_FILTER,
-                                TextUtils.isEmpty(negativeRegex) ? ""
-                                        : negativeRegex).build(), null, null,
-                null, null);
-    }// onCreateLoader()
+        mLoadingNextPage = true;
+        mLoadedFileCount += mMaxFileCount;
+        ((CursorLoader) loader).setUri(buildDirectoryContentUri(mLoaderPath,
+                mLoadedFileCount, true));
+        loader.forceLoad();
+    }// loadNextPage()
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, final Cursor data) {
         mLoading = false;
+        final boolean isNextPage = mLoadingNextPage;
+        mLoadingNextPage = false;
+
+        if (isNextPage && loader instanceof CursorLoader) {
+            /*
+             * Content changes must reload the directory, not only the pages.
+             */
+            ((CursorLoader) loader).setUri(buildDirectoryContentUri(
+                    mLoaderPath, mLoadedFileCount, false));
+        }
 
         /*
-         * Update list view.
+         * Update list view. The cursor of a next page starts with the rows
+         * already shown, so selections stay valid. Other reloads of the same
+         * directory come from changes of its content, which the provider
+         * applies to its listing without listing the directory again; only
+         * the rows in view are bound again.
          */
-        mFileAdapter.changeCursor(data);
+        if (isNextPage || mNewLoader)
+            mFileAdapter.changeCursor(data, isNextPage);
+        else
+            mFileAdapter.changeCursorAfterContentChange(data);
 
         mViewGroupFiles.setVisibility(View.VISIBLE);
         mViewLoadingHandler.removeCallbacksAndMessages(null);
@@ -583,14 +655,13 @@ public class FragmentFiles extends Fragment implements
             }.execute();
         }// if
 
-        boolean hasMoreFiles = ProviderUtils.getBooleanQueryParam(uriInfo,
+        /*
+         * More files are loaded page by page while scrolling.
+         */
+        mHasMoreFiles = ProviderUtils.getBooleanQueryParam(uriInfo,
                 BaseFile.PARAM_HAS_MORE_FILES);
-        showFooterView(
-                hasMoreFiles || mFileAdapter.isEmpty(),
-                hasMoreFiles ? getString(
-                        R.string.afc_pmsg_max_file_count_allowed, mMaxFileCount)
-                        : getString(R.string.afc_msg_empty),
-                mFileAdapter.isEmpty());
+        showFooterView(mFileAdapter.isEmpty(),
+                getString(R.string.afc_msg_empty), mFileAdapter.isEmpty());
 
         if (mNewLoader || selectedFile != null)
             createFileSelector();
@@ -702,6 +773,7 @@ public class FragmentFiles extends Fragment implements
                 return mListviewFilesGestureDetector.onTouchEvent(event);
             }
         });
+        mViewFiles.setOnScrollListener(mViewFilesOnScrollListener);
 
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB
                 && !getActivity().getWindow().isFloating()) {
@@ -1606,7 +1678,7 @@ public class FragmentFiles extends Fragment implements
         final int id = cursor.getInt(cursor.getColumnIndex(BaseFile._ID));
         final Uri uri = BaseFileProviderUtils.getUri(cursor);
 
-        mFileAdapter.markItemAsDeleted(id, true);
+        mFileAdapter.markItemAsDeleted(id, uri, true);
 
         Dlg.confirmYesno(
                 getActivity(),
@@ -1674,7 +1746,7 @@ public class FragmentFiles extends Fragment implements
                                         super.onPostExecute(result);
 
                                         if (result) {
-                                            mFileAdapter.markItemAsDeleted(id,
+                                            mFileAdapter.markItemAsDeleted(id, uri,
                                                     false);
                                             Dlg.toast(getActivity(),
                                                     R.string.afc_msg_cancelled,
@@ -1695,7 +1767,7 @@ public class FragmentFiles extends Fragment implements
                                 if (result) {
                                     notifyFileDeleted();
                                 } else {
-                                    mFileAdapter.markItemAsDeleted(id, false);
+                                    mFileAdapter.markItemAsDeleted(id, uri, false);
                                     Dlg.toast(
                                             getActivity(),
                                             getString(
@@ -1712,7 +1784,7 @@ public class FragmentFiles extends Fragment implements
 
                     @Override
                     public void onCancel(DialogInterface dialog) {
-                        mFileAdapter.markItemAsDeleted(id, false);
+                        mFileAdapter.markItemAsDeleted(id, uri, false);
                     }// onCancel()
                 });
     }// deleteFile()
@@ -2271,6 +2343,27 @@ public class FragmentFiles extends Fragment implements
      * LISTVIEW HELPER
      */
 
+    /**
+     * Loads the next page when the user scrolled close to the last loaded
+     * row.
+     */
+    private final AbsListView.OnScrollListener mViewFilesOnScrollListener = new AbsListView.OnScrollListener() {
+
+        @Override
+        public void onScrollStateChanged(AbsListView view, int scrollState) {
+            // do nothing
+        }// onScrollStateChanged()
+
+        @Override
+        public void onScroll(AbsListView view, int firstVisibleItem,
+                int visibleItemCount, int totalItemCount) {
+            if (mHasMoreFiles && !mLoading && !mLoadingNextPage
+                    && totalItemCount > 0
+                    && firstVisibleItem + 2 * visibleItemCount >= totalItemCount)
+                loadNextPage();
+        }// onScroll()
+    };// mViewFilesOnScrollListener
+
     private final AdapterView.OnItemClickListener mViewFilesOnItemClickListener = new AdapterView.OnItemClickListener() {
 
         @Override
@@ -317,6 +317,20 @@ public class BaseFileContract {
          */
         public static final String PARAM_HAS_MORE_FILES = "has_more_files";
 
+        /**
+         * Use this parameter to load further pages of a directory listing.
+         * If {@code true}, the provider may answer from the listing of a
+         * previous query which differed only in {@link #PARAM_LIMIT} and
+         * {@link #PARAM_TASK_ID}, instead of listing the directory again.
+         * Rows keep their IDs and positions, so a query with a bigger limit
+         * extends the previous result.
+         * <p/>
+         * Default: {@code "false"} with {@code query()}.
+         * <p/>
+         * Type: {@code Boolean}
+         */
+        public static final String PARAM_REUSE_LISTING = "reuse_listing";
+
         /**
          * Use this parameter to append a file name to a full path of directory
          * to obtains its full pathname.
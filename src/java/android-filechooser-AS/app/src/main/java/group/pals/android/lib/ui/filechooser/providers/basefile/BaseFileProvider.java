@@ -10,12 +10,14 @@ package group.pals.android.lib.ui.filechooser.providers.basefile;
 import group.pals.android.lib.ui.filechooser.providers.basefile.BaseFileContract.BaseFile;
 
 import java.text.Collator;
+import java.util.List;
 
 import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.util.SparseBooleanArray;
 
 /**
@@ -72,6 +74,75 @@ public abstract class BaseFileProvider extends ContentProvider {
      */
     protected final Collator mCollator = Collator.getInstance();
 
+    /**
+     * The sorted content of a directory. Providers keep the last listing to
+     * answer queries with {@link BaseFile#PARAM_REUSE_LISTING}, which load
+     * further pages of it.
+     * 
+     * @param <T>
+     *            the type of the file objects.
+     */
+    protected static class DirectoryListing<T> {
+
+        /**
+         * Maximum time a listing is reused.
+         */
+        public static final long MAX_AGE = 60 * 1000;
+
+        /**
+         * The key of the query, see {@link BaseFileProvider#getListingKey(Uri)}.
+         */
+        public final String key;
+        public final List<T> files;
+        /**
+         * Provider defined value to detect outdated listings, e.g. the
+         * modification time of the directory.
+         */
+        public final long version;
+        private final long mCreatedAt = SystemClock.elapsedRealtime();
+
+        public DirectoryListing(String key, List<T> files, long version) {
+            this.key = key;
+            this.files = files;
+            this.version = version;
+        }// DirectoryListing()
+
+        /**
+         * Checks if this listing can answer a query.
+         * 
+         * @param key
+         *            the key of the query.
+         * @param version
+         *            the current version of the directory.
+         * @return {@code true} if this listing is up to date.
+         */
+        public boolean isValidFor(String key, long version) {
+            return this.key.equals(key) && this.version == version
+                    && SystemClock.elapsedRealtime() - mCreatedAt < MAX_AGE;
+        }// isValidFor()
+    }// DirectoryListing
+
+    /**
+     * Gets the key of a directory query: the URI without parameters which
+     * don't influence the content of the listing.
+     * 
+     * @param uri
+     *            the query URI.
+     * @return the key.
+     */
+    protected static String getListingKey(Uri uri) {
+        Uri.Builder builder = uri.buildUpon().clearQuery();
+        for (String name : uri.getQueryParameterNames()) {
+            if (BaseFile.PARAM_LIMIT.equals(name)
+                    || BaseFile.PARAM_TASK_ID.equals(name)
+                    || BaseFile.PARAM_REUSE_LISTING.equals(name))
+                continue;
+            for (String value : uri.getQueryParameters(name))
+                builder.appendQueryParameter(name, value);
+        }
+        return builder.build().toString();
+    }// getListingKey()
+
     @Override
     public boolean onCreate() {
         return true;
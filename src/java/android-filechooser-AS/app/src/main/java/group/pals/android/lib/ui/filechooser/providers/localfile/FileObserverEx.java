@@ -9,6 +9,9 @@ package group.pals.android.lib.ui.filechooser.providers.localfile;
 
 import group.pals.android.lib.ui.filechooser.BuildConfig;
 import group.pals.android.lib.ui.filechooser.utils.Utils;
+import java.util.HashSet;
+import java.util.Set;
+
 import android.content.Context;
 import android.net.Uri;
 import android.os.Build;
@@ -36,17 +39,53 @@ public class FileObserverEx extends FileObserver {
             | FileObserver.MOVED_TO | FileObserver.ATTRIB | FileObserver.MODIFY;
 
     private static final long MIN_TIME_BETWEEN_EVENTS = 5000;
+    /**
+     * Events within this time after the first one are reported together.
+     */
+    private static final long COALESCE_TIME = 200;
+    /**
+     * If more files than this changed at once, they are reported as unknown
+     * changes.
+     */
+    private static final int MAX_CHANGED_FILES = 500;
     private static final int MSG_NOTIFY_CHANGES = 0;
     /**
      * An unknown event, most likely a bug of the system.
      */
     private static final int FILE_OBSERVER_UNKNOWN_EVENT = 32768;
 
+    /**
+     * Listener for the changes found by {@link FileObserverEx}.
+     */
+    public interface OnChangesListener {
+
+        /**
+         * Called on the thread of the observer before clients are notified
+         * about changes.
+         * 
+         * @param observer
+         *            the observer.
+         * @param names
+         *            the names of the files in the watched directory which
+         *            were created, deleted or modified. {@code null} if it is
+         *            unknown what changed.
+         */
+        void onChanges(FileObserverEx observer, Set<String> names);
+    }// OnChangesListener
+
     private final HandlerThread mHandlerThread = new HandlerThread(CLASSNAME);
     private final Handler mHandler;
-    private long mLastEventTime = SystemClock.elapsedRealtime();
+    private final String mPath;
+    private final OnChangesListener mOnChangesListener;
+    private long mLastEventTime = SystemClock.elapsedRealtime() - MIN_TIME_BETWEEN_EVENTS;
     private boolean mWatching = false;
 
+    /**
+     * Names of changed files since the last notification. {@code null} if
+     * unknown files changed.
+     */
+    private Set<String> mChangedNames = new HashSet<String>();
+
     /**
      * Creates new instance.
      * 
@@ -57,8 +96,27 @@ public class FileObserverEx extends FileObserver {
      */
     public FileObserverEx(final Context context, final String path,
             final Uri notificationUri) {
+        this(context, path, notificationUri, null);
+    }// FileObserverEx()
+
+    /**
+     * Creates new instance.
+     * 
+     * @param context
+     *            the context.
+     * @param path
+     *            the path to the directory that you want to watch for changes.
+     * @param onChangesListener
+     *            receives the changed file names before clients are notified,
+     *            can be {@code null}.
+     */
+    public FileObserverEx(final Context context, final String path,
+            final Uri notificationUri, OnChangesListener onChangesListener) {
         super(path, FILE_OBSERVER_MASK);
 
+        mPath = path;
+        mOnChangesListener = onChangesListener;
+
         mHandlerThread.start();
         mHandler = new Handler(mHandlerThread.getLooper()) {
 
@@ -72,6 +130,13 @@ public class FileObserverEx extends FileObserver {
 
                 switch (msg.what) {
                 case MSG_NOTIFY_CHANGES:
+                    Set<String> names;
+                    synchronized (FileObserverEx.this) {
+                        names = mChangedNames;
+                        mChangedNames = new HashSet<String>();
+                    }
+                    if (mOnChangesListener != null)
+                        mOnChangesListener.onChanges(FileObserverEx.this, names);
                     context.getContentResolver().notifyChange(notificationUri,
                             null);
                     mLastEventTime = SystemClock.elapsedRealtime();
@@ -81,26 +146,46 @@ public class FileObserverEx extends FileObserver {
         };
     }// FileObserverEx()
 
+    /**
+     * Gets the path of the watched directory.
+     * 
+     * @return the path.
+     */
+    public String getPath() {
+        return mPath;
+    }// getPath()
+
     @Override
     public void onEvent(int event, String path) {
         /*
          * Some bugs of Android...
          */
-        if (!mWatching || event == FILE_OBSERVER_UNKNOWN_EVENT || path == null
-                || mHandler.hasMessages(MSG_NOTIFY_CHANGES)
+        if (!mWatching || event == FILE_OBSERVER_UNKNOWN_EVENT
                 || !mHandlerThread.isAlive() || mHandlerThread.isInterrupted())
             return;
 
-        try {
-            if (SystemClock.elapsedRealtime() - mLastEventTime <= MIN_TIME_BETWEEN_EVENTS)
-                mHandler.sendEmptyMessageDelayed(
-                        MSG_NOTIFY_CHANGES,
-                        Math.max(
-                                1,
-                                MIN_TIME_BETWEEN_EVENTS
-                                        - (SystemClock.elapsedRealtime() - mLastEventTime)));
+        /*
+         * Events without a path, e.g. when the event queue overflowed, tell
+         * that something unknown changed.
+         */
+        synchronized (this) {
+            if (path == null || mChangedNames == null
+                    || mChangedNames.size() >= MAX_CHANGED_FILES)
+                mChangedNames = null;
             else
-                mHandler.sendEmptyMessage(MSG_NOTIFY_CHANGES);
+                mChangedNames.add(path);
+        }
+
+        if (mHandler.hasMessages(MSG_NOTIFY_CHANGES))
+            return;
+
+        try {
+            mHandler.sendEmptyMessageDelayed(
+                    MSG_NOTIFY_CHANGES,
+                    Math.max(
+                            COALESCE_TIME,
+                            MIN_TIME_BETWEEN_EVENTS
+                                    - (SystemClock.elapsedRealtime() - mLastEventTime)));
         } catch (Throwable t) {
             mWatching = false;
             if (Utils.doLog())
@@ -0,0 +1,118 @@
+/*
+ * This file is part of Keepass2Android, Copyright 2025 Philipp Crocoll.
+ *
+ *   Keepass2Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Keepass2Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Keepass2Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package group.pals.android.lib.ui.filechooser.providers.localfile;
+
+import group.pals.android.lib.ui.filechooser.providers.basefile.BaseFileContract.BaseFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.CollationKey;
+
+import android.net.Uri;
+import android.os.Build;
+
+/**
+ * Snapshot of the attributes of a local file, read once when the file is
+ * listed. Sorting and building cursor rows work on these values instead of
+ * querying the file system again for every comparison or column.
+ */
+class LocalFileInfo {
+
+    final File file;
+    final String name;
+    final int type;
+    final boolean canRead;
+    final boolean canWrite;
+    final long length;
+    final long lastModified;
+
+    /**
+     * Collation key of {@link #name}, set before sorting by name.
+     */
+    CollationKey nameKey;
+
+    private String mUriString;
+
+    private LocalFileInfo(File file, int type, long length, long lastModified) {
+        this.file = file;
+        this.name = file.getName();
+        this.type = type;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.canRead = file.canRead();
+        this.canWrite = file.canWrite();
+    }// LocalFileInfo()
+
+    boolean isFile() {
+        return type == BaseFile.FILE_TYPE_FILE;
+    }// isFile()
+
+    boolean isDirectory() {
+        return type == BaseFile.FILE_TYPE_DIRECTORY;
+    }// isDirectory()
+
+    /**
+     * @return the {@code file://} URI of this file as string.
+     */
+    String getUriString() {
+        if (mUriString == null)
+            mUriString = Uri.fromFile(file).toString();
+        return mUriString;
+    }// getUriString()
+
+    /**
+     * Reads the attributes of {@code file}.
+     * 
+     * @param file
+     *            the file.
+     * @return the attributes. If the file doesn't exist (anymore), its type
+     *         is {@link BaseFile#FILE_TYPE_UNKNOWN}.
+     */
+    static LocalFileInfo stat(File file) {
+        if (Build.VERSION.SDK_INT >= 26) {
+            try {
+                /*
+                 * Type, size and modification time from a single stat() call.
+                 */
+                BasicFileAttributes attrs = Files.readAttributes(
+                        file.toPath(), BasicFileAttributes.class);
+                int type = attrs.isRegularFile() ? BaseFile.FILE_TYPE_FILE
+                        : (attrs.isDirectory() ? BaseFile.FILE_TYPE_DIRECTORY
+                                : BaseFile.FILE_TYPE_UNKNOWN);
+                return new LocalFileInfo(file, type, attrs.size(), attrs
+                        .lastModifiedTime().toMillis());
+            } catch (IOException e) {
+                return new LocalFileInfo(file, BaseFile.FILE_TYPE_UNKNOWN, 0,
+                        0);
+            } catch (RuntimeException e) {
+                /*
+                 * E.g. invalid path. Fall through to java.io.
+                 */
+            }
+        }
+
+        int type = file.isFile() ? BaseFile.FILE_TYPE_FILE : (file
+                .isDirectory() ? BaseFile.FILE_TYPE_DIRECTORY
+                : BaseFile.FILE_TYPE_UNKNOWN);
+        return new LocalFileInfo(file, type, file.length(),
+                file.lastModified());
+    }// stat()
+
+}
@@ -13,6 +13,7 @@ import group.pals.android.lib.ui.filechooser.providers.BaseFileProviderUtils;
 import group.pals.android.lib.ui.filechooser.providers.ProviderUtils;
 import group.pals.android.lib.ui.filechooser.providers.basefile.BaseFileContract.BaseFile;
 import group.pals.android.lib.ui.filechooser.providers.basefile.BaseFileProvider;
+import group.pals.android.lib.ui.filechooser.utils.EnvUtils;
 import group.pals.android.lib.ui.filechooser.utils.FileUtils;
 import group.pals.android.lib.ui.filechooser.utils.TextUtils;
 import group.pals.android.lib.ui.filechooser.utils.Texts;
@@ -23,7 +24,9 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CancellationException;
 import java.util.regex.Pattern;
 
@@ -48,8 +51,67 @@ public class LocalFileProvider extends BaseFileProvider {
      */
     private static final String CLASSNAME = LocalFileProvider.class.getName();
 
+    /**
+     * Number of files processed between two checks for cancellation.
+     */
+    private static final int BATCH_SIZE = 256;
+
     private FileObserverEx mFileObserverEx;
 
+    /**
+     * The last directory listing, to load further pages of it.
+     */
+    private volatile DirectoryListing<LocalFileInfo> mLastListing;
+
+    /**
+     * {@code true} while {@link #mFileObserverEx} keeps {@link #mLastListing}
+     * up to date, so it can be used instead of listing the directory again.
+     */
+    private volatile boolean mLastListingObserved;
+
+    /**
+     * Guards replacing {@link #mLastListing}.
+     */
+    private final Object mListingLock = new Object();
+
+    /**
+     * Counts the changes reported by {@link #mFileObserverEx}, to find the
+     * ones which happened while a directory was listed. Guarded by
+     * {@link #mListingLock}.
+     */
+    private int mObservedChangeCount;
+
+    /**
+     * Counts the directory listings started, so a listing finished in the
+     * background can tell if it is still wanted. Guarded by
+     * {@link #mListingLock}.
+     */
+    private int mListingGeneration;
+
+    /**
+     * The task ID of the listing running in the background, {@code 0} if
+     * none. Guarded by {@link #mListingLock}.
+     */
+    private int mBackgroundListingTaskId;
+
+    /**
+     * Applies the changes found by {@link #mFileObserverEx} to the last
+     * listing.
+     */
+    private final FileObserverEx.OnChangesListener mOnFileChangesListener = new FileObserverEx.OnChangesListener() {
+
+        @Override
+        public void onChanges(FileObserverEx observer, Set<String> names) {
+            synchronized (mListingLock) {
+                mObservedChangeCount++;
+                if (names == null
+                        || !applyFileChanges(new File(observer.getPath()),
+                                names))
+                    mLastListingObserved = false;
+            }
+        }// onChanges()
+    };
+
     @Override
     public boolean onCreate() {
         BaseFileProviderUtils.registerProviderInfo(LocalFileContract._ID,
@@ -309,9 +371,12 @@ public class LocalFileProvider extends BaseFileProvider {
             // mMapInterruption.put(mMapInterruption.keyAt(i), true);
             // }
 
-            if (mFileObserverEx != null) {
-                mFileObserverEx.stopWatching();
-                mFileObserverEx = null;
+            synchronized (mListingLock) {
+                if (mFileObserverEx != null) {
+                    mLastListingObserved = false;
+                    mFileObserverEx.stopWatching();
+                    mFileObserverEx = null;
+                }
             }
         }
 
@@ -357,67 +422,138 @@ public class LocalFileProvider extends BaseFileProvider {
         String negativeRegex = uri
                 .getQueryParameter(BaseFile.PARAM_NEGATIVE_REGEX_FILTER);
 
+        boolean reuseListing = ProviderUtils.getBooleanQueryParam(uri,
+                BaseFile.PARAM_REUSE_LISTING);
+
         mMapInterruption.put(taskId, false);
 
-        boolean[] hasMoreFiles = { false };
-        List<File> files = new ArrayList<File>();
-        listFiles(taskId, dir, showHiddenFiles, filterMode, limit,
-                positiveRegex, negativeRegex, files, hasMoreFiles);
+        /*
+         * Starts watching the directory before it is listed, so no change
+         * gets lost in between. The observer is kept while only further pages
+         * of the directory or its changes are loaded.
+         */
+        synchronized (mListingLock) {
+            if (mFileObserverEx == null
+                    || !mFileObserverEx.getPath()
+                            .equals(dir.getAbsolutePath())) {
+                if (mFileObserverEx != null)
+                    mFileObserverEx.stopWatching();
+                mLastListingObserved = false;
+                mFileObserverEx = new FileObserverEx(getContext(),
+                        dir.getAbsolutePath(), uri, mOnFileChangesListener);
+                mFileObserverEx.startWatching();
+            }
+        }
+
+        /*
+         * The whole directory is listed and sorted once, queries for further
+         * pages only build the rows up to the new limit. While the directory
+         * is observed, changes are applied to the listing directly, so it
+         * doesn't need to be listed again when they are reloaded. The
+         * modification time of the directory is still compared, in case an
+         * event was missed.
+         */
+        String listingKey = getListingKey(uri);
+        DirectoryListing<LocalFileInfo> listing = mLastListing;
+        boolean listingUpToDate = listing != null
+                && (mLastListingObserved ? listing.key.equals(listingKey)
+                        && listing.version == dir.lastModified()
+                        : reuseListing
+                                && listing.isValidFor(listingKey,
+                                        dir.lastModified()));
+        boolean firstWindowOnly = false;
+        if (!listingUpToDate) {
+            final int observedChangeCount;
+            final int generation;
+            synchronized (mListingLock) {
+                observedChangeCount = mObservedChangeCount;
+                generation = ++mListingGeneration;
+                if (mBackgroundListingTaskId != 0)
+                    mMapInterruption.put(mBackgroundListingTaskId, true);
+            }
+            final long dirLastModified = dir.lastModified();
+
+            /*
+             * When a directory is opened, listing stops at the limit, so the
+             * first page shows up as fast as before. If there are more files,
+             * the whole directory is listed and sorted in the background and
+             * the loader is notified when it's done.
+             */
+            boolean firstVisit = listing == null
+                    || !listing.key.equals(listingKey);
+            boolean[] truncated = { false };
+            List<LocalFileInfo> allFiles = new ArrayList<LocalFileInfo>();
+            listFiles(taskId, dir, showHiddenFiles, filterMode,
+                    firstVisit ? limit : Integer.MAX_VALUE, positiveRegex,
+                    negativeRegex, allFiles, truncated);
+            if (!mMapInterruption.get(taskId))
+                sortFiles(taskId, allFiles, sortAscending, sortBy);
+            listing = new DirectoryListing<LocalFileInfo>(listingKey,
+                    allFiles, dirLastModified);
+            if (truncated[0]) {
+                firstWindowOnly = true;
+                if (!mMapInterruption.get(taskId))
+                    listInBackground(uri, dir, listingKey, generation,
+                            observedChangeCount, dirLastModified);
+            } else if (!mMapInterruption.get(taskId))
+                setLastListing(listing, dir, generation, observedChangeCount);
+        }
+        final List<LocalFileInfo> files = listing.files.subList(0,
+                Math.min(limit, listing.files.size()));
+        /*
+         * Further pages of a first window are loaded after the whole
+         * directory has been sorted.
+         */
+        final boolean hasMoreFiles = !firstWindowOnly
+                && listing.files.size() > limit;
+
         if (!mMapInterruption.get(taskId)) {
-            sortFiles(taskId, files, sortAscending, sortBy);
-            if (!mMapInterruption.get(taskId)) {
-                for (int i = 0; i < files.size(); i++) {
-                    if (mMapInterruption.get(taskId))
-                        break;
-
-                    File f = files.get(i);
-                    int type = f.isFile() ? BaseFile.FILE_TYPE_FILE : (f
-                            .isDirectory() ? BaseFile.FILE_TYPE_DIRECTORY
-                            : BaseFile.FILE_TYPE_UNKNOWN);
-                    RowBuilder newRow = matrixCursor.newRow();
-                    newRow.add(i);// _ID
-                    newRow.add(BaseFile
-                            .genContentIdUriBase(
-                                    LocalFileContract
-                                            .getAuthority(getContext()))
-                            .buildUpon().appendPath(Uri.fromFile(f).toString())
-                            .build().toString());
-                    newRow.add(Uri.fromFile(f).toString());
-                    newRow.add(f.getName());
-                    newRow.add(f.canRead() ? 1 : 0);
-                    newRow.add(f.canWrite() ? 1 : 0);
-                    newRow.add(f.length());
-                    newRow.add(type);
-                    newRow.add(f.lastModified());
-                    newRow.add(FileUtils.getResIcon(type, f.getName()));
-                }// for files
+            Uri contentIdUriBase = BaseFile.genContentIdUriBase(LocalFileContract
+                    .getAuthority(getContext()));
+            for (int i = 0; i < files.size(); i++) {
+                if (i % BATCH_SIZE == 0 && mMapInterruption.get(taskId))
+                    break;
 
-                /*
-                 * The last row contains:
-                 * 
-                 * - The ID;
-                 * 
-                 * - The base file URI to original directory, which has
-                 * parameter BaseFile.PARAM_HAS_MORE_FILES to indicate the
-                 * directory has more files or not.
-                 * 
-                 * - The system absolute path to original directory.
-                 * 
-                 * - The name of original directory.
-                 */
+                LocalFileInfo f = files.get(i);
                 RowBuilder newRow = matrixCursor.newRow();
-                newRow.add(files.size());// _ID
-                newRow.add(BaseFile
-                        .genContentIdUriBase(
-                                LocalFileContract.getAuthority(getContext()))
-                        .buildUpon()
-                        .appendPath(Uri.fromFile(dir).toString())
-                        .appendQueryParameter(BaseFile.PARAM_HAS_MORE_FILES,
-                                Boolean.toString(hasMoreFiles[0])).build()
-                        .toString());
-                newRow.add(Uri.fromFile(dir).toString());
-                newRow.add(dir.getName());
-            }
+                newRow.add(i);// _ID
+                newRow.add(contentIdUriBase.buildUpon()
+                        .appendPath(f.getUriString()).build().toString());
+                newRow.add(f.getUriString());
+                newRow.add(f.name);
+                newRow.add(f.canRead ? 1 : 0);
+                newRow.add(f.canWrite ? 1 : 0);
+                newRow.add(f.length);
+                newRow.add(f.type);
+                newRow.add(f.lastModified);
+                newRow.add(FileUtils.getResIcon(f.type, f.name));
+            }// for files
+
+            /*
+             * The last row contains:
+             * 
+             * - The ID;
+             * 
+             * - The base file URI to original directory, which has
+             * parameter BaseFile.PARAM_HAS_MORE_FILES to indicate the
+             * directory has more files or not.
+             * 
+             * - The system absolute path to original directory.
+             * 
+             * - The name of original directory.
+             */
+            RowBuilder newRow = matrixCursor.newRow();
+            newRow.add(files.size());// _ID
+            newRow.add(BaseFile
+                    .genContentIdUriBase(
+                            LocalFileContract.getAuthority(getContext()))
+                    .buildUpon()
+                    .appendPath(Uri.fromFile(dir).toString())
+                    .appendQueryParameter(BaseFile.PARAM_HAS_MORE_FILES,
+                            Boolean.toString(hasMoreFiles)).build()
+                    .toString());
+            newRow.add(Uri.fromFile(dir).toString());
+            newRow.add(dir.getName());
         }
 
         try {
@@ -430,12 +566,6 @@ public class LocalFileProvider extends BaseFileProvider {
             mMapInterruption.delete(taskId);
         }
 
-        if (mFileObserverEx != null)
-            mFileObserverEx.stopWatching();
-        mFileObserverEx = new FileObserverEx(getContext(),
-                dir.getAbsolutePath(), uri);
-        mFileObserverEx.startWatching();
-
         /*
          * Tells the Cursor what URI to watch, so it knows when its source data
          * changes.
@@ -444,6 +574,110 @@ public class LocalFileProvider extends BaseFileProvider {
         return matrixCursor;
     }// doListFiles()
 
+    /**
+     * Makes {@code listing} the last listing, if no other listing was started
+     * since.
+     * 
+     * @param listing
+     *            the listing.
+     * @param dir
+     *            the listed directory.
+     * @param generation
+     *            the value of {@link #mListingGeneration} when the listing was
+     *            started.
+     * @param observedChangeCount
+     *            the value of {@link #mObservedChangeCount} when the listing
+     *            was started.
+     * @return {@code true} if the listing was taken.
+     */
+    private boolean setLastListing(DirectoryListing<LocalFileInfo> listing,
+            File dir, int generation, int observedChangeCount) {
+        synchronized (mListingLock) {
+            if (generation != mListingGeneration)
+                return false;
+            mLastListing = listing;
+            mLastListingObserved = mFileObserverEx != null
+                    && mFileObserverEx.getPath().equals(dir.getAbsolutePath())
+                    && observedChangeCount == mObservedChangeCount;
+            return true;
+        }
+    }// setLastListing()
+
+    /**
+     * Lists and sorts the whole directory in the background, then notifies
+     * clients of {@code uri}, which will get rows from the new listing.
+     * 
+     * @param uri
+     *            the URI of the directory content.
+     * @param dir
+     *            the directory.
+     * @param listingKey
+     *            the key of the listing.
+     * @param generation
+     *            see {@link #setLastListing(DirectoryListing, File, int, int)}.
+     * @param observedChangeCount
+     *            see {@link #setLastListing(DirectoryListing, File, int, int)}.
+     * @param dirLastModified
+     *            the modification time of the directory before it was listed.
+     */
+    private void listInBackground(final Uri uri, final File dir,
+            final String listingKey, final int generation,
+            final int observedChangeCount, final long dirLastModified) {
+        final int taskId = EnvUtils.genId();
+        synchronized (mListingLock) {
+            if (generation != mListingGeneration)
+                return;
+            mMapInterruption.put(taskId, false);
+            mBackgroundListingTaskId = taskId;
+        }
+
+        Thread thread = new Thread(CLASSNAME + ".listInBackground()") {
+
+            @Override
+            public void run() {
+                try {
+                    List<LocalFileInfo> allFiles = new ArrayList<LocalFileInfo>();
+                    listFiles(taskId, dir, ProviderUtils.getBooleanQueryParam(
+                            uri, BaseFile.PARAM_SHOW_HIDDEN_FILES),
+                            ProviderUtils.getIntQueryParam(uri,
+                                    BaseFile.PARAM_FILTER_MODE,
+                                    BaseFile.FILTER_FILES_AND_DIRECTORIES),
+                            Integer.MAX_VALUE, uri
+                                    .getQueryParameter(BaseFile.PARAM_POSITIVE_REGEX_FILTER),
+                            uri.getQueryParameter(BaseFile.PARAM_NEGATIVE_REGEX_FILTER),
+                            allFiles, new boolean[1]);
+                    if (!mMapInterruption.get(taskId))
+                        sortFiles(taskId, allFiles, ProviderUtils
+                                .getBooleanQueryParam(uri,
+                                        BaseFile.PARAM_SORT_ASCENDING, true),
+                                ProviderUtils.getIntQueryParam(uri,
+                                        BaseFile.PARAM_SORT_BY,
+                                        BaseFile.SORT_BY_NAME));
+                    if (!mMapInterruption.get(taskId)
+                            && setLastListing(
+                                    new DirectoryListing<LocalFileInfo>(
+                                            listingKey, allFiles,
+                                            dirLastModified), dir,
+                                    generation, observedChangeCount)) {
+                        if (Utils.doLog())
+                            Log.d(CLASSNAME, "listInBackground() >> "
+                                    + allFiles.size() + " files in " + dir);
+                        getContext().getContentResolver().notifyChange(uri,
+                                null);
+                    }
+                } finally {
+                    synchronized (mListingLock) {
+                        if (mBackgroundListingTaskId == taskId)
+                            mBackgroundListingTaskId = 0;
+                        mMapInterruption.delete(taskId);
+                    }
+                }
+            }// run()
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }// listInBackground()
+
     /**
      * Retrieves file information of a single file.
      * 
@@ -480,7 +714,8 @@ public class LocalFileProvider extends BaseFileProvider {
     }// doRetrieveFileInfo()
 
     /**
-     * Lists all file inside {@code dir}.
+     * Lists all file inside {@code dir}. The attributes of each file are read
+     * only once.
      * 
      * @param taskId
      *            the task ID.
@@ -507,57 +742,160 @@ public class LocalFileProvider extends BaseFileProvider {
     private void listFiles(final int taskId, final File dir,
             final boolean showHiddenFiles, final int filterMode,
             final int limit, String positiveRegex, String negativeRegex,
-            final List<File> results, final boolean hasMoreFiles[]) {
+            final List<LocalFileInfo> results, final boolean hasMoreFiles[]) {
         final Pattern positivePattern = Texts.compileRegex(positiveRegex);
         final Pattern negativePattern = Texts.compileRegex(negativeRegex);
 
         hasMoreFiles[0] = false;
-        try {
-            dir.listFiles(new FileFilter() {
 
-                @Override
-                public boolean accept(File pathname) {
-                    if (mMapInterruption.get(taskId))
-                        throw new CancellationException();
+        /*
+         * list() only reads the names, each file is stat'ed once below.
+         */
+        String[] names = dir.list();
+        if (names == null)
+            return;
 
-                    final boolean isFile = pathname.isFile();
-                    final String name = pathname.getName();
+        for (int i = 0; i < names.length; i++) {
+            if (i % BATCH_SIZE == 0 && mMapInterruption.get(taskId)) {
+                if (Utils.doLog())
+                    Log.d(CLASSNAME, "listFiles() >> cancelled...");
+                return;
+            }
 
-                    /*
-                     * Filters...
-                     */
-                    if (filterMode == BaseFile.FILTER_DIRECTORIES_ONLY
-                            && isFile)
-                        return false;
-                    if (!showHiddenFiles && name.startsWith("."))
-                        return false;
-                    if (isFile && positivePattern != null
-                            && !positivePattern.matcher(name).find())
-                        return false;
-                    if (isFile && negativePattern != null
-                            && negativePattern.matcher(name).find())
-                        return false;
+            final String name = names[i];
+            if (!showHiddenFiles && name.startsWith("."))
+                continue;
 
-                    /*
-                     * Limit...
-                     */
-                    if (results.size() >= limit) {
-                        hasMoreFiles[0] = true;
-                        throw new CancellationException("Exceeding limit...");
-                    }
-                    results.add(pathname);
+            LocalFileInfo info = LocalFileInfo.stat(new File(dir, name));
+            if (!accept(info, showHiddenFiles, filterMode, positivePattern,
+                    negativePattern))
+                continue;
+
+            /*
+             * Limit...
+             */
+            if (results.size() >= limit) {
+                hasMoreFiles[0] = true;
+                if (Utils.doLog())
+                    Log.d(CLASSNAME, "listFiles() >> exceeding limit...");
+                return;
+            }
+            results.add(info);
+        }// for names
+    }// listFiles()
+
+    /**
+     * Checks if {@code info} passes the filters of a listing.
+     * 
+     * @param info
+     *            the file information.
+     * @param showHiddenFiles
+     *            {@code true} or {@code false}.
+     * @param filterMode
+     *            can be one of {@link BaseFile#FILTER_DIRECTORIES_ONLY},
+     *            {@link BaseFile#FILTER_FILES_ONLY},
+     *            {@link BaseFile#FILTER_FILES_AND_DIRECTORIES}.
+     * @param positivePattern
+     *            the positive regex filter, can be {@code null}.
+     * @param negativePattern
+     *            the negative regex filter, can be {@code null}.
+     * @return {@code true} if the file belongs to the listing.
+     */
+    private static boolean accept(LocalFileInfo info,
+            boolean showHiddenFiles, int filterMode, Pattern positivePattern,
+            Pattern negativePattern) {
+        if (!showHiddenFiles && info.name.startsWith("."))
+            return false;
+
+        final boolean isFile = info.isFile();
+        if (filterMode == BaseFile.FILTER_DIRECTORIES_ONLY && isFile)
+            return false;
+        if (isFile && positivePattern != null
+                && !positivePattern.matcher(info.name).find())
+            return false;
+        if (isFile && negativePattern != null
+                && negativePattern.matcher(info.name).find())
+            return false;
+        return true;
+    }// accept()
+
+    /**
+     * Applies changes of files in {@code dir} to the last listing, if it
+     * belongs to {@code dir}. Only the changed files are read again, and
+     * inserted at their sorted positions.
+     * 
+     * @param dir
+     *            the directory.
+     * @param names
+     *            the names of the changed files.
+     * @return {@code true} if the listing was updated, {@code false} if the
+     *         directory needs to be listed again.
+     */
+    private boolean applyFileChanges(File dir, Set<String> names) {
+        synchronized (mListingLock) {
+            DirectoryListing<LocalFileInfo> listing = mLastListing;
+            if (listing == null || !mLastListingObserved)
+                return false;
+
+            Uri uri = Uri.parse(listing.key);
+            if (!dir.equals(extractFile(uri)))
+                return false;
+
+            boolean showHiddenFiles = ProviderUtils.getBooleanQueryParam(uri,
+                    BaseFile.PARAM_SHOW_HIDDEN_FILES);
+            boolean sortAscending = ProviderUtils.getBooleanQueryParam(uri,
+                    BaseFile.PARAM_SORT_ASCENDING, true);
+            int sortBy = ProviderUtils.getIntQueryParam(uri,
+                    BaseFile.PARAM_SORT_BY, BaseFile.SORT_BY_NAME);
+            int filterMode = ProviderUtils.getIntQueryParam(uri,
+                    BaseFile.PARAM_FILTER_MODE,
+                    BaseFile.FILTER_FILES_AND_DIRECTORIES);
+            Pattern positivePattern = Texts.compileRegex(uri
+                    .getQueryParameter(BaseFile.PARAM_POSITIVE_REGEX_FILTER));
+            Pattern negativePattern = Texts.compileRegex(uri
+                    .getQueryParameter(BaseFile.PARAM_NEGATIVE_REGEX_FILTER));
+
+            /*
+             * The listing may be in use by a query, so a changed copy
+             * replaces it.
+             */
+            List<LocalFileInfo> files = new ArrayList<LocalFileInfo>(
+                    listing.files);
+            for (Iterator<LocalFileInfo> i = files.iterator(); i.hasNext();) {
+                if (names.contains(i.next().name))
+                    i.remove();
+            }
+
+            Comparator<LocalFileInfo> comparator = newFileComparator(
+                    sortAscending, sortBy);
+            for (String name : names) {
+                File file = new File(dir, name);
+                LocalFileInfo info = LocalFileInfo.stat(file);
+                if (info.type == BaseFile.FILE_TYPE_UNKNOWN && !file.exists())
+                    continue;
+                if (!accept(info, showHiddenFiles, filterMode,
+                        positivePattern, negativePattern))
+                    continue;
+
+                info.nameKey = mCollator.getCollationKey(info.name);
+                int index = Collections.binarySearch(files, info, comparator);
+                files.add(index < 0 ? -index - 1 : index, info);
+            }// for names
+
+            mLastListing = new DirectoryListing<LocalFileInfo>(listing.key,
+                    files, dir.lastModified());
 
-                    return false;
-                }// accept()
-            });
-        } catch (CancellationException e) {
             if (Utils.doLog())
-                Log.d(CLASSNAME, "listFiles() >> cancelled... >> " + e);
+                Log.d(CLASSNAME, "applyFileChanges() >> " + names.size()
+                        + " changed file(s) in " + dir);
+            return true;
         }
-    }// listFiles()
+    }// applyFileChanges()
 
     /**
-     * Sorts {@code files}.
+     * Sorts {@code files}. Comparisons only use the attributes read by
+     * {@link #listFiles(int, File, boolean, int, int, String, String, List, boolean[])}
+     * and collation keys computed once per file.
      * 
      * @param taskId
      *            the task ID.
@@ -569,54 +907,73 @@ public class LocalFileProvider extends BaseFileProvider {
      *            can be one of {@link BaseFile.#_SortByModificationTime},
      *            {@link BaseFile.#_SortByName}, {@link BaseFile.#_SortBySize}.
      */
-    private void sortFiles(final int taskId, final List<File> files,
+    private void sortFiles(final int taskId, final List<LocalFileInfo> files,
             final boolean ascending, final int sortBy) {
-        try {
-            Collections.sort(files, new Comparator<File>() {
-
-                @Override
-                public int compare(File lhs, File rhs) {
-                    if (mMapInterruption.get(taskId))
-                        throw new CancellationException();
-
-                    if (lhs.isDirectory() && !rhs.isDirectory())
-                        return -1;
-                    if (!lhs.isDirectory() && rhs.isDirectory())
-                        return 1;
-
-                    /*
-                     * Default is to compare by name (case insensitive).
-                     */
-                    int res = mCollator.compare(lhs.getName(), rhs.getName());
-
-                    switch (sortBy) {
-                    case BaseFile.SORT_BY_NAME:
-                        break;// SortByName
-
-                    case BaseFile.SORT_BY_SIZE:
-                        if (lhs.length() > rhs.length())
-                            res = 1;
-                        else if (lhs.length() < rhs.length())
-                            res = -1;
-                        break;// SortBySize
-
-                    case BaseFile.SORT_BY_MODIFICATION_TIME:
-                        if (lhs.lastModified() > rhs.lastModified())
-                            res = 1;
-                        else if (lhs.lastModified() < rhs.lastModified())
-                            res = -1;
-                        break;// SortByDate
-                    }
-
-                    return ascending ? res : -res;
-                }// compare()
-            });
-        } catch (CancellationException e) {
-            if (Utils.doLog())
-                Log.d(CLASSNAME, "sortFiles() >> cancelled...");
+        for (int i = 0; i < files.size(); i++) {
+            if (i % BATCH_SIZE == 0 && mMapInterruption.get(taskId)) {
+                if (Utils.doLog())
+                    Log.d(CLASSNAME, "sortFiles() >> cancelled...");
+                return;
+            }
+            LocalFileInfo f = files.get(i);
+            if (f.nameKey == null)
+                f.nameKey = mCollator.getCollationKey(f.name);
         }
+
+        Collections.sort(files, newFileComparator(ascending, sortBy));
     }// sortFiles()
 
+    /**
+     * Creates the comparator used to sort files. The collation keys of the
+     * files must be set.
+     * 
+     * @param ascending
+     *            {@code true} or {@code false}.
+     * @param sortBy
+     *            can be one of {@link BaseFile.#_SortByModificationTime},
+     *            {@link BaseFile.#_SortByName}, {@link BaseFile.#_SortBySize}.
+     * @return the comparator.
+     */
+    private static Comparator<LocalFileInfo> newFileComparator(
+            final boolean ascending, final int sortBy) {
+        return new Comparator<LocalFileInfo>() {
+
+            @Override
+            public int compare(LocalFileInfo lhs, LocalFileInfo rhs) {
+                if (lhs.isDirectory() && !rhs.isDirectory())
+                    return -1;
+                if (!lhs.isDirectory() && rhs.isDirectory())
+                    return 1;
+
+                /*
+                 * Default is to compare by name (case insensitive).
+                 */
+                int res = lhs.nameKey.compareTo(rhs.nameKey);
+
+                switch (sortBy) {
+                case BaseFile.SORT_BY_NAME:
+                    break;// SortByName
+
+                case BaseFile.SORT_BY_SIZE:
+                    if (lhs.length > rhs.length)
+                        res = 1;
+                    else if (lhs.length < rhs.length)
+                        res = -1;
+                    break;// SortBySize
+
+                case BaseFile.SORT_BY_MODIFICATION_TIME:
+                    if (lhs.lastModified > rhs.lastModified)
+                        res = 1;
+                    else if (lhs.lastModified < rhs.lastModified)
+                        res = -1;
+                    break;// SortByDate
+                }
+
+                return ascending ? res : -res;
+            }// compare()
+        };
+    }// newFileComparator()
+
     /**
      * Deletes {@code file}.
      * 
@@ -0,0 +1,169 @@
+/*
+ * This file is part of Keepass2Android, Copyright 2025 Philipp Crocoll.
+ *
+ *   Keepass2Android is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Keepass2Android is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with Keepass2Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package keepass2android.kp2afilechooser;
+
+import android.os.SystemClock;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Thread-safe cache for {@link FileEntry} objects retrieved by {@link Kp2aFileProvider}.
+ * <p>
+ * Entries expire after a fixed time and the least recently used entries are evicted when the
+ * cache is full. A sorted index of the paths allows removing a directory together with everything
+ * below it without scanning the whole cache.
+ */
+public class FileEntryCache {
+
+	private static class CachedEntry {
+		final FileEntry entry;
+		final long expiresAt;
+
+		CachedEntry(FileEntry entry, long expiresAt) {
+			this.entry = entry;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private final int mMaxEntries;
+	private final long mTimeToLiveMs;
+
+	//access ordered, the eldest entry is the least recently used one
+	private final LinkedHashMap<String, CachedEntry> mEntries = new LinkedHashMap<String, CachedEntry>(16, 0.75f, true);
+	//the same keys, sorted for prefix lookups
+	private final TreeMap<String, CachedEntry> mIndex = new TreeMap<String, CachedEntry>();
+	//during write operations it is not desired to put entries to the cache. This set indicates which
+	//files cannot be cached currently:
+	private final Set<String> mBlockedPaths = new HashSet<String>();
+
+	private long mHits;
+	private long mMisses;
+	private long mEvictions;
+
+	public FileEntryCache(int maxEntries, long timeToLiveMs) {
+		mMaxEntries = maxEntries;
+		mTimeToLiveMs = timeToLiveMs;
+	}
+
+	/**
+	 * @return the cached entry for {@code path} or {@code null} if it is not cached or expired.
+	 */
+	public synchronized FileEntry get(String path) {
+		CachedEntry cached = mEntries.get(path);
+		if (cached != null && cached.expiresAt <= now()) {
+			removeEntry(path);
+			cached = null;
+		}
+		if (cached == null) {
+			mMisses++;
+			return null;
+		}
+		mHits++;
+		return cached.entry;
+	}
+
+	public synchronized boolean contains(String path) {
+		CachedEntry cached = mEntries.get(path);
+		return cached != null && cached.expiresAt > now();
+	}
+
+	/**
+	 * Puts {@code entry} into the cache unless its path is blocked.
+	 */
+	public synchronized void put(FileEntry entry) {
+		if (entry == null || entry.path == null || mBlockedPaths.contains(entry.path))
+			return;
+		CachedEntry cached = new CachedEntry(entry, now() + mTimeToLiveMs);
+		mEntries.put(entry.path, cached);
+		mIndex.put(entry.path, cached);
+		trimToSize();
+	}
+
+	/**
+	 * Removes {@code path} from the cache. If {@code recursive} is set, all paths below it are
+	 * removed as well.
+	 */
+	public synchronized void remove(String path, boolean recursive) {
+		removeEntry(path);
+		if (!recursive)
+			return;
+		String prefix = path.endsWith("/") ? path : path + "/";
+		Iterator<String> it = mIndex.subMap(prefix, prefix + Character.MAX_VALUE).keySet().iterator();
+		while (it.hasNext()) {
+			mEntries.remove(it.next());
+			it.remove();
+		}
+	}
+
+	public synchronized void block(String path) {
+		mBlockedPaths.add(path);
+	}
+
+	public synchronized void unblock(String path) {
+		mBlockedPaths.remove(path);
+	}
+
+	public synchronized void clear() {
+		mEntries.clear();
+		mIndex.clear();
+	}
+
+	public synchronized int size() {
+		return mEntries.size();
+	}
+
+	public synchronized long getHitCount() {
+		return mHits;
+	}
+
+	public synchronized long getMissCount() {
+		return mMisses;
+	}
+
+	public synchronized long getEvictionCount() {
+		return mEvictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "FileEntryCache{size=" + mEntries.size() + ",hits=" + mHits + ",misses=" + mMisses
+				+ ",evictions=" + mEvictions + "}";
+	}
+
+	private void removeEntry(String path) {
+		mEntries.remove(path);
+		mIndex.remove(path);
+	}
+
+	private void trimToSize() {
+		Iterator<Map.Entry<String, CachedEntry>> it = mEntries.entrySet().iterator();
+		while (mEntries.size() > mMaxEntries && it.hasNext()) {
+			mIndex.remove(it.next().getKey());
+			it.remove();
+			mEvictions++;
+		}
+	}
+
+	private static long now() {
+		return SystemClock.elapsedRealtime();
+	}
+}
@@ -35,11 +35,15 @@ import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import group.pals.android.lib.ui.filechooser.R;
 import group.pals.android.lib.ui.filechooser.providers.BaseFileProviderUtils;
@@ -72,10 +76,15 @@ public abstract class Kp2aFileProvider extends BaseFileProvider {
     private static final String CLASSNAME = Kp2aFileProvider.class.getName();
     
     //cache for FileEntry objects to reduce network traffic
-    private HashMap<String, FileEntry> fileEntryMap = new HashMap<String, FileEntry>();
-    //during write operations it is not desired to put entries to the cache. This set indicates which 
-    //files cannot be cached currently:
-    private Set<String> cacheBlockedFiles = new HashSet<String>();
+    private static final int FILE_ENTRY_CACHE_SIZE = 2000;
+    private static final long FILE_ENTRY_CACHE_TTL_MS = 5 * 60 * 1000;
+    private final FileEntryCache fileEntryCache = new FileEntryCache(FILE_ENTRY_CACHE_SIZE, FILE_ENTRY_CACHE_TTL_MS);
+    //the last directory listing, to load further pages of it
+    private volatile DirectoryListing<FileEntry> lastListing;
+
+    //maximum number of getFileEntry calls which the default getFileEntries implementation runs at a time
+    private static final int MAX_PARALLEL_LOOKUPS = 4;
+    private static ExecutorService lookupExecutor;
 
 
     @Override
@@ -177,6 +186,7 @@ public abstract class Kp2aFileProvider extends BaseFileProvider {
 
             if (success) 
             {
+                lastListing = null;
                 Uri newUri = BaseFile
                         .genContentIdUriBase(
                                 getAuthority())
@@ -429,64 +439,91 @@ public abstract class Kp2aFileProvider extends BaseFileProvider {
         String negativeRegex = uri
                 .getQueryParameter(BaseFile.PARAM_NEGATIVE_REGEX_FILTER);
 
+        boolean reuseListing = ProviderUtils.getBooleanQueryParam(uri,
+                BaseFile.PARAM_REUSE_LISTING);
+
         mMapInterruption.put(taskId, false);
 
+        //queries for further pages of the last listing are answered without listing the directory again
+        String listingKey = getListingKey(uri);
+        DirectoryListing<FileEntry> listing = lastListing;
         boolean[] hasMoreFiles = { false };
-        List<FileEntry> files = new ArrayList<FileEntry>();
-        listFiles(taskId, dirName, showHiddenFiles, filterMode, limit,
-                positiveRegex, negativeRegex, files, hasMoreFiles);
-        if (!mMapInterruption.get(taskId)) {
-        	
-            try {
-				sortFiles(taskId, files, sortAscending, sortBy);
-			} catch (Exception e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+        List<FileEntry> files;
+        if (reuseListing && listing != null && listing.isValidFor(listingKey, 0)) {
+            files = listing.files;
+        } else {
+            //the address bar asks for the directory and each of its ancestors after the listing.
+            //Look them up while the directory is being listed instead of one after the other later.
+            List<String> addressBarPaths = new ArrayList<String>();
+            for (String p = dirName; p != null && addressBarPaths.size() < 64; p = getParentPath(p))
+                addressBarPaths.add(p);
+            FutureTask<List<FileEntry>> addressBarLookup = startFileEntryLookup(addressBarPaths);
+
+            files = new ArrayList<FileEntry>();
+            listFiles(taskId, dirName, showHiddenFiles, filterMode, Integer.MAX_VALUE,
+                    positiveRegex, negativeRegex, files, hasMoreFiles);
+            finishFileEntryLookup(addressBarLookup);
             if (!mMapInterruption.get(taskId)) {
+                try {
+                    sortFiles(taskId, files, sortAscending, sortBy);
+                } catch (Exception e) {
+                    // TODO Auto-generated catch block
+                    e.printStackTrace();
+                }
+                if (!mMapInterruption.get(taskId) && !hasMoreFiles[0])
+                    lastListing = new DirectoryListing<FileEntry>(listingKey, files, 0);
+            }
+        }
+        if (files.size() > limit) {
+            files = files.subList(0, limit);
+            hasMoreFiles[0] = true;
+        }
+
+        if (!mMapInterruption.get(taskId)) {
+        	for (int i = 0; i < files.size(); i++) {
+                if (mMapInterruption.get(taskId))
+                    break;
+
+                FileEntry f = files.get(i);
+                updateFileEntryCache(f);
                 
-            	for (int i = 0; i < files.size(); i++) {
-                    if (mMapInterruption.get(taskId))
-                        break;
-
-                    FileEntry f = files.get(i);
-                    updateFileEntryCache(f);
-                    
-                    if (Utils.doLog())
-                    	Log.d(CLASSNAME, "listing " + f.path +" for "+dirName);
-                    
-                    addFileInfo(matrixCursor, i, f);
-                }// for files
-
-                /*
-                 * The last row contains:
-                 * 
-                 * - The ID;
-                 * 
-                 * - The base file URI to original directory, which has
-                 * parameter BaseFile.PARAM_HAS_MORE_FILES to indicate the
-                 * directory has more files or not.
-                 * 
-                 * - The system absolute path to original directory.
-                 * 
-                 * - The name of original directory.
-                 */
-                RowBuilder newRow = matrixCursor.newRow();
-                newRow.add(files.size());// _ID
-                newRow.add(BaseFile
-                        .genContentIdUriBase(
-                                getAuthority())
-                        .buildUpon()
-                        .appendPath(dirName)
-                        .appendQueryParameter(BaseFile.PARAM_HAS_MORE_FILES,
-                                Boolean.toString(hasMoreFiles[0])).build()
-                        .toString());
-                newRow.add(dirName);
-                String displayName = getFileEntryCached(dirName).displayName;
-                newRow.add(displayName);
+                if (Utils.doLog())
+                	Log.d(CLASSNAME, "listing " + f.path +" for "+dirName);
                 
-                if (Utils.doLog()) Log.d(CLASSNAME, "Returning name " + displayName+" for " +dirName);
-            }
+                addFileInfo(matrixCursor, i, f);
+            }// for files
+
+            if (Utils.doLog())
+                Log.d(CLASSNAME, "doListFiles: " + fileEntryCache);
+
+            /*
+             * The last row contains:
+             * 
+             * - The ID;
+             * 
+             * - The base file URI to original directory, which has
+             * parameter BaseFile.PARAM_HAS_MORE_FILES to indicate the
+             * directory has more files or not.
+             * 
+             * - The system absolute path to original directory.
+             * 
+             * - The name of original directory.
+             */
+            RowBuilder newRow = matrixCursor.newRow();
+            newRow.add(files.size());// _ID
+            newRow.add(BaseFile
+                    .genContentIdUriBase(
+                            getAuthority())
+                    .buildUpon()
+                    .appendPath(dirName)
+                    .appendQueryParameter(BaseFile.PARAM_HAS_MORE_FILES,
+                            Boolean.toString(hasMoreFiles[0])).build()
+                    .toString());
+            newRow.add(dirName);
+            String displayName = getFileEntryCached(dirName).displayName;
+            newRow.add(displayName);
+            
+            if (Utils.doLog()) Log.d(CLASSNAME, "Returning name " + displayName+" for " +dirName);
         }
 
         try {
@@ -562,44 +599,30 @@ public abstract class Kp2aFileProvider extends BaseFileProvider {
 
     //puts the file entry in the cache for later reuse with retrieveFileInfo
 	private void updateFileEntryCache(FileEntry f) {
-		if (f != null)
-            fileEntryMap.put(f.path, f);
+		fileEntryCache.put(f);
 	}
 	//removes the file entry from the cache (if cached). Should be called whenever the file changes
 	private void removeFromCache(String filename, boolean recursive) {
-		fileEntryMap.remove(filename);
-		
-		if (recursive)
-		{
-			Set<String> keys = fileEntryMap.keySet();
-			Set<String> keysToRemove = new HashSet<String>();
-			for (String key: keys)
-			{
-				if (key.startsWith(key))
-					keysToRemove.add(key);
-			}
-			for (String key: keysToRemove)
-			{
-				fileEntryMap.remove(key);	
-			}
-			
-		}
-		
-		
+		fileEntryCache.remove(filename, recursive);
+		lastListing = null;
 	}
 	
 	private void blockFromCache(String filename) {
-		cacheBlockedFiles.add(filename);
+		fileEntryCache.block(filename);
 	}
 	
 	private void unblockFromCache(String filename) {
-		cacheBlockedFiles.remove(filename);
+		fileEntryCache.unblock(filename);
+	}
+
+	public FileEntryCache getFileEntryCache() {
+		return fileEntryCache;
 	}
 
 	//returns the file entry from the cache if present or queries the concrete provider method to return the file info
     private FileEntry getFileEntryCached(String filename) {
     	//check if entry is cached:
-    	FileEntry cachedEntry = fileEntryMap.get(filename);
+    	FileEntry cachedEntry = fileEntryCache.get(filename);
     	if (cachedEntry != null)
     	{
     		if (Utils.doLog())
@@ -620,12 +643,99 @@ public abstract class Kp2aFileProvider extends BaseFileProvider {
             return null;
         }
 		
-		if (!cacheBlockedFiles.contains(filename))
-			updateFileEntryCache(newEntry);
+		updateFileEntryCache(newEntry);
 		
 		return newEntry;
 	}
 
+    //starts looking up those of the given paths which are not cached yet. Returns null if all are cached.
+    private FutureTask<List<FileEntry>> startFileEntryLookup(List<String> paths) {
+        final List<String> missing = new ArrayList<String>();
+        for (String path : paths) {
+            if (!fileEntryCache.contains(path))
+                missing.add(path);
+        }
+        if (missing.isEmpty())
+            return null;
+        FutureTask<List<FileEntry>> lookup = new FutureTask<List<FileEntry>>(() -> getFileEntries(missing));
+        Thread thread = new Thread(lookup, "Kp2aFileProvider lookup");
+        thread.setDaemon(true);
+        thread.start();
+        return lookup;
+    }
+
+    //waits for a lookup started with startFileEntryLookup and puts the results into the cache
+    private void finishFileEntryLookup(FutureTask<List<FileEntry>> lookup) {
+        if (lookup == null)
+            return;
+        try {
+            for (FileEntry e : lookup.get()) {
+                updateFileEntryCache(e);
+            }
+        } catch (Exception e) {
+            if (Utils.doLog()) Log.d(CLASSNAME, "file entry lookup failed: " + e);
+        }
+    }
+
+    /**
+     * Retrieves the file entries of several files at once.
+     * <p>
+     * The default implementation calls {@link #getFileEntry(String, StringBuilder)} for up to
+     * {@link #MAX_PARALLEL_LOOKUPS} files in parallel. Implementations which can query several
+     * files with a single request should override this.
+     *
+     * @param paths
+     *            the files to look up.
+     * @return the entries in the order of {@code paths}. Entries which could not be retrieved
+     *         are {@code null}.
+     */
+    protected List<FileEntry> getFileEntries(List<String> paths) {
+        List<FileEntry> result = new ArrayList<FileEntry>(paths.size());
+        if (paths.size() == 1) {
+            result.add(getFileEntryOrNull(paths.get(0)));
+            return result;
+        }
+        List<Future<FileEntry>> lookups = new ArrayList<Future<FileEntry>>(paths.size());
+        for (final String path : paths)
+            lookups.add(getLookupExecutor().submit(() -> getFileEntryOrNull(path)));
+        for (Future<FileEntry> lookup : lookups) {
+            try {
+                result.add(lookup.get());
+            } catch (Exception e) {
+                if (Utils.doLog()) Log.d(CLASSNAME, "getFileEntries: " + e);
+                result.add(null);
+            }
+        }
+        return result;
+    }
+
+    private FileEntry getFileEntryOrNull(String path) {
+        try {
+            return getFileEntry(path, null);
+        } catch (Exception e) {
+            if (Utils.doLog()) Log.d(CLASSNAME, "getFileEntry failed for " + path + ": " + e);
+            return null;
+        }
+    }
+
+    private static synchronized ExecutorService getLookupExecutor() {
+        if (lookupExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_PARALLEL_LOOKUPS,
+                    MAX_PARALLEL_LOOKUPS, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "Kp2aFileProvider getFileEntry");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            lookupExecutor = executor;
+        }
+        return lookupExecutor;
+    }
+
 	private void addDeletedFileInfo(MatrixCursor matrixCursor, String filename) {
     	int type = BaseFile.FILE_TYPE_NOT_EXISTED;
     	RowBuilder newRow = matrixCursor.newRow();
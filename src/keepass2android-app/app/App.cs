@@ -127,6 +127,8 @@ namespace keepass2android
   {
     public void Lock(bool allowQuickUnlock = true, bool lockWasTriggeredByTimeout = false)
     {
+      KdbDatabaseFormat.ClearTransformedKeyCache();
+
       if (OpenDatabases.Any())
       {
         if (QuickUnlockEnabled && allowQuickUnlock &&